@@ -29,6 +29,14 @@ public final class AccessConfig {
     public static final String CALL_THRESHOLD_UNIT = PREFIX + "call.thresholdUnit";
     public static final String CONNECTION_THRESHOLD = PREFIX + "connection.threshold";
     public static final String CONNECTION_THRESHOLD_UNIT = PREFIX + "connection.thresholdUnit";
+    public static final String CALL_RESOURCES = PREFIX + "call.resources";
+    public static final String HEAVY_HITTERS = PREFIX + "heavyHitters";
+    public static final String HEAVY_HITTERS_CAPACITY = PREFIX + "heavyHitters.capacity";
+    public static final String HEAVY_HITTERS_WINDOW = PREFIX + "heavyHitters.window";
+    public static final String HEAVY_HITTERS_WINDOW_UNIT = PREFIX + "heavyHitters.windowUnit";
+    public static final String BINARY_DIRECTORY = PREFIX + "binary.directory";
+    public static final String BINARY_SEGMENT_SIZE = PREFIX + "binary.segmentSize";
+    public static final String BINARY_SEGMENTS = PREFIX + "binary.segments";
 
     private AccessConfig() {
     }
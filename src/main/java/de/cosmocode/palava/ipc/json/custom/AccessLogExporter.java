@@ -0,0 +1,220 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Converts segments written by the binary access log (see {@link AccessConfig#BINARY_DIRECTORY})
+ * into csv or json lines.
+ * 
+ * <pre>
+ * java de.cosmocode.palava.ipc.json.custom.AccessLogExporter [csv|json] directory-or-segment...
+ * </pre>
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class AccessLogExporter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String CSV_HEADER = "timestamp,duration,outcome,session,identifier,command,url";
+
+    /**
+     * The supported output formats.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    public static enum Format {
+
+        /**
+         * Comma separated values including a header line.
+         */
+        CSV,
+
+        /**
+         * One json object per line.
+         */
+        JSON;
+
+    }
+
+    private AccessLogExporter() {
+
+    }
+
+    /**
+     * Exports all records of the given segments.
+     *
+     * @since 3.0
+     * @param format the output format
+     * @param output the target
+     * @param segments the segment files, in chronological order
+     * @throws IOException if reading or writing failed
+     */
+    public static void export(final Format format, final Appendable output, File... segments) throws IOException {
+        Preconditions.checkNotNull(format, "Format");
+        Preconditions.checkNotNull(output, "Output");
+
+        if (format == Format.CSV) {
+            output.append(CSV_HEADER).append('\n');
+        }
+
+        final MappedLog.Visitor visitor = new MappedLog.Visitor() {
+
+            @Override
+            public void visit(ByteBuffer record) throws IOException {
+                write(format, record, output);
+            }
+
+        };
+
+        for (File segment : segments) {
+            MappedLog.read(segment, visitor);
+        }
+    }
+
+    private static void write(Format format, ByteBuffer record, Appendable output) throws IOException {
+        if (record.remaining() < BinaryAccessLog.RECORD_SIZE) {
+            throw new IOException("Corrupt record of " + record.remaining() + " bytes");
+        }
+
+        final int start = record.position();
+        final long timestamp = record.getLong();
+        final long duration = record.getLong();
+        final long session = record.getLong();
+        final String outcome = record.get() == BinaryAccessLog.SUCCESS ? "success" : "failure";
+        final int identifierLength = record.get() & 0xff;
+        final int commandLength = record.get() & 0xff;
+        final int urlLength = record.get() & 0xff;
+
+        final String identifier = read(record, start + BinaryAccessLog.IDENTIFIER_OFFSET, identifierLength);
+        final String command = read(record, start + BinaryAccessLog.COMMAND_OFFSET, commandLength);
+        final String url = read(record, start + BinaryAccessLog.URL_OFFSET, urlLength);
+        final String sessionHash = session == 0L ? "" : Long.toHexString(session);
+
+        if (format == Format.CSV) {
+            output.append(Long.toString(timestamp)).append(',');
+            output.append(Long.toString(duration)).append(',');
+            output.append(outcome).append(',');
+            output.append(sessionHash).append(',');
+            output.append(quote(identifier)).append(',');
+            output.append(quote(command)).append(',');
+            output.append(quote(url)).append('\n');
+        } else {
+            output.append("{\"timestamp\":").append(Long.toString(timestamp));
+            output.append(",\"duration\":").append(Long.toString(duration));
+            output.append(",\"outcome\":\"").append(outcome);
+            output.append("\",\"session\":\"").append(sessionHash);
+            output.append("\",\"identifier\":\"").append(escape(identifier));
+            output.append("\",\"command\":\"").append(escape(command));
+            output.append("\",\"url\":\"").append(escape(url));
+            output.append("\"}\n");
+        }
+    }
+
+    private static String read(ByteBuffer record, int offset, int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = record.get(offset + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    private static String escape(String value) {
+        final StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                // json forbids raw control characters, including line breaks and tabs
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String quote(String value) {
+        if (!needsQuotes(value)) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            switch (value.charAt(i)) {
+                case ',':
+                case '"':
+                case '\r':
+                case '\n': {
+                    return true;
+                }
+                default: {
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Exports segments to standard out.
+     *
+     * @param args the format (csv or json), followed by directories or segment files
+     * @throws IOException if reading or writing failed
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: AccessLogExporter [csv|json] directory-or-segment...");
+            System.exit(1);
+        }
+
+        final Format format = Format.valueOf(args[0].toUpperCase());
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, UTF_8));
+        final List<File> segments = Lists.newArrayList();
+        for (int i = 1; i < args.length; i++) {
+            final File file = new File(args[i]);
+            if (file.isDirectory()) {
+                segments.addAll(Arrays.asList(MappedLog.list(file, BinaryAccessLog.PREFIX)));
+            } else {
+                segments.add(file);
+            }
+        }
+
+        try {
+            export(format, writer, segments.toArray(new File[segments.size()]));
+        } finally {
+            writer.flush();
+        }
+    }
+
+}
@@ -19,6 +19,9 @@ package de.cosmocode.palava.ipc.json.custom;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
@@ -37,6 +40,7 @@ import de.cosmocode.palava.ipc.IpcCommand;
 import de.cosmocode.palava.ipc.IpcCommandExecutionException;
 import de.cosmocode.palava.ipc.IpcConnection;
 import de.cosmocode.palava.ipc.IpcConnectionDestroyEvent;
+import de.cosmocode.palava.ipc.IpcSession;
 
 /**
  * A filter which logs ipc access.
@@ -46,30 +50,52 @@ import de.cosmocode.palava.ipc.IpcConnectionDestroyEvent;
 @Singleton
 final class AccessLogger implements IpcCallFilter, IpcConnectionDestroyEvent, Initializable, Disposable {
 
+    private static final Logger LOG = LoggerFactory.getLogger(AccessLogger.class);
+
     private static final String ACCESS_LOG = "ACCESS_LOG";
     
     private final Registry registry;
     private final Provider<Browser> currentBrowserProvider;
+    private final HeavyHitters heavyHitters;
+    private final BinaryAccessLog binaryLog;
+    private final ProtocolMetrics metrics;
 
     private long callThreshold;
     private TimeUnit callThresholdUnit;
     private long connectionThreshold;
     private TimeUnit connectionThresholdUnit;
 
+    private boolean callResources;
+    private ThreadResources resources;
+    private final CommandStatistics statistics = new CommandStatistics();
+
     @Inject
-    AccessLogger(Registry registry, @Current Provider<Browser> currentBrowserProvider) {
+    AccessLogger(Registry registry, @Current Provider<Browser> currentBrowserProvider,
+        HeavyHitters heavyHitters, BinaryAccessLog binaryLog, ProtocolMetrics metrics) {
         this.registry = registry;
         this.currentBrowserProvider = currentBrowserProvider;
+        this.heavyHitters = heavyHitters;
+        this.binaryLog = binaryLog;
+        this.metrics = metrics;
     }
 
     @Override
     public void initialize() throws LifecycleException {
         registry.register(IpcConnectionDestroyEvent.class, this);
+        if (callResources) {
+            // enables thread cpu time and allocation measurement vm wide, hence only if requested
+            resources = ThreadResources.get();
+            metrics.addSource(statistics);
+        }
     }
 
     @Override
     public void dispose() throws LifecycleException {
         registry.remove(this);
+        if (callResources) {
+            metrics.removeSource(statistics);
+            statistics.log(LOG);
+        }
     }
 
     @Inject(optional = true)
@@ -93,9 +119,23 @@ final class AccessLogger implements IpcCallFilter, IpcConnectionDestroyEvent, In
         this.connectionThresholdUnit = connectionThresholdUnit;
     }
 
+    @Inject(optional = true)
+    public void setCallResources(@Named(AccessConfig.CALL_RESOURCES) boolean callResources) {
+        this.callResources = callResources;
+    }
+
+    CommandStatistics getStatistics() {
+        return statistics;
+    }
+
     @Override
     public Map<String, Object> filter(IpcCall call, IpcCommand command, IpcCallFilterChain chain)
         throws IpcCommandExecutionException {
+
+        if (call.get(Warmup.MARKER) != null) {
+            // keep synthetic calls out of the statistics
+            return chain.filter(call, command);
+        }
         
         Access access = Access.class.cast(call.getConnection().get(ACCESS_LOG));
         
@@ -106,8 +146,15 @@ final class AccessLogger implements IpcCallFilter, IpcConnectionDestroyEvent, In
             call.getConnection().put(ACCESS_LOG, access);
         }
 
+        final boolean measure = callResources;
+        final long startedCall = System.currentTimeMillis();
+        final long startedCpu = measure ? resources.getCpuTime() : -1L;
+        final long startedAllocation = measure ? resources.getAllocatedBytes() : -1L;
+        final boolean binary = binaryLog.isEnabled();
+        final long startedNanos = binary ? System.nanoTime() : 0L;
+        boolean succeeded = false;
+
         try {
-            final long startedCall = System.currentTimeMillis();
             final Map<String, Object> result = chain.filter(call, command);
             final long stoppedCall = System.currentTimeMillis();
 
@@ -116,6 +163,7 @@ final class AccessLogger implements IpcCallFilter, IpcConnectionDestroyEvent, In
                 final long threshold = callThresholdUnit.toMillis(callThreshold);
 
                 if (used >= threshold) {
+                    metrics.slowCall();
                     access.getLog().warn("SLOW CALL detected: {} {} [used: {}ms, threshold: {}ms]",
                         new Object[]{command.getClass().getName(),
                             call.getArguments().toString(),
@@ -125,6 +173,7 @@ final class AccessLogger implements IpcCallFilter, IpcConnectionDestroyEvent, In
             }
 
             access.success(call);
+            succeeded = true;
             return result;
         } catch (IpcCommandExecutionException e) {
             access.failure(call);
@@ -134,9 +183,33 @@ final class AccessLogger implements IpcCallFilter, IpcConnectionDestroyEvent, In
         /* CHECKSTYLE:ON */
             access.failure(call);
             throw e;
+        } finally {
+            if (binary) {
+                final IpcSession session = call.getConnection().getSession();
+                binaryLog.record(startedCall, System.nanoTime() - startedNanos, succeeded,
+                    session.getSessionId(), session.getIdentifier(), command.getClass(),
+                    access.getRequestUrl());
+            }
+            if (measure || heavyHitters.isEnabled()) {
+                final long used = System.currentTimeMillis() - startedCall;
+                if (measure) {
+                    statistics.record(command.getClass(), used,
+                        delta(startedCpu, resources.getCpuTime()),
+                        delta(startedAllocation, resources.getAllocatedBytes()));
+                }
+                if (heavyHitters.isEnabled()) {
+                    final IpcSession session = call.getConnection().getSession();
+                    heavyHitters.record(command.getClass().getName(),
+                        session.getSessionId(), session.getIdentifier(), used);
+                }
+            }
         }
     }
 
+    private long delta(long started, long stopped) {
+        return started < 0 || stopped < 0 ? -1L : stopped - started;
+    }
+
     @Override
     public void eventIpcConnectionDestroy(IpcConnection connection) {
         final Access access = Access.class.cast(connection.get(ACCESS_LOG));
@@ -147,12 +220,15 @@ final class AccessLogger implements IpcCallFilter, IpcConnectionDestroyEvent, In
             final long threshold = connectionThresholdUnit.toMillis(connectionThreshold);
 
             if (used >= threshold) {
+                metrics.slowConnection();
                 access.getLog().warn("SLOW CONNECTION detected: {} [used: {}ms, threshold: {}ms]",
                     new Object[]{access.getRequestUrl(), used, threshold});
             }
         }
 
-        access.log();
+        if (!binaryLog.isEnabled()) {
+            access.log();
+        }
     }
     
 }
@@ -0,0 +1,451 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.ipc.IpcCommand;
+
+/**
+ * Binds the arguments of a call to a typed object in a single pass. The argument schema
+ * is declared once using {@link Argument} annotated fields and analyzed into a binder,
+ * which validates and converts all arguments without repeated lookups per key and
+ * assigns them using reflection.
+ * Failures are reported using a stackless {@link ArgumentBindingException}, which will
+ * be encoded into the response like any other exception thrown by an {@link IpcCommand}.
+ * 
+ * <pre>
+ * final class SearchArguments {
+ *
+ *     &#64;Argument
+ *     private String query;
+ *
+ *     &#64;Argument(value = "max", required = false)
+ *     private int limit = 10;
+ *
+ * }
+ *
+ * final SearchArguments arguments = ArgumentBinder.of(SearchArguments.class).bind(call.getArguments());
+ * </pre>
+ *
+ * Supported field types are {@link String}, all primitive types and their wrappers,
+ * enums, {@link List}s, {@link Map}s and {@link Object}. Numbers which don't fit into
+ * the field type are rejected, chars have to be passed as strings of length one.
+ * Integral fields are converted exactly, including {@link BigInteger}s and
+ * {@link BigDecimal}s, only float and double fields go through {@link Number#doubleValue()}.
+ * Unknown arguments are ignored. The bound class needs a no-argument constructor.
+ *
+ * @since 3.0
+ * @author agent
+ * @param <T> the bound type
+ */
+public final class ArgumentBinder<T> {
+
+    // binders reference their class, so weak keys alone wouldn't release it
+    private static final ConcurrentMap<Class<?>, ArgumentBinder<?>> BINDERS =
+        new MapMaker().weakKeys().softValues().makeMap();
+
+    private final Constructor<T> constructor;
+
+    private final Map<String, Slot> slots;
+
+    private final long required;
+
+    private ArgumentBinder(Class<T> type) {
+        try {
+            this.constructor = type.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type + " has no no-argument constructor", e);
+        }
+        constructor.setAccessible(true);
+
+        final Map<String, Slot> map = Maps.newHashMap();
+        long mask = 0L;
+        for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                final Argument argument = field.getAnnotation(Argument.class);
+                if (argument == null) continue;
+
+                Preconditions.checkArgument(!Modifier.isStatic(field.getModifiers()) &&
+                    !Modifier.isFinal(field.getModifiers()), "%s must be neither static nor final", field);
+                Preconditions.checkArgument(map.size() < Long.SIZE, "%s declares more than %s arguments",
+                    type, Long.SIZE);
+
+                final String name = argument.value().length() == 0 ? field.getName() : argument.value();
+                final long bit = 1L << map.size();
+                Preconditions.checkArgument(!map.containsKey(name), "%s declares argument %s twice", type, name);
+
+                field.setAccessible(true);
+                map.put(name, new Slot(name, field, bit));
+                if (argument.required()) {
+                    mask |= bit;
+                }
+            }
+        }
+        this.slots = map;
+        this.required = mask;
+    }
+
+    /**
+     * Provides the binder of the given type, creating it on first use.
+     *
+     * @since 3.0
+     * @param <T> the bound type
+     * @param type the class declaring {@link Argument} fields
+     * @return the binder of the given type
+     * @throws IllegalArgumentException if the given type can't be bound
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ArgumentBinder<T> of(Class<T> type) {
+        Preconditions.checkNotNull(type, "Type");
+        final ArgumentBinder<?> binder = BINDERS.get(type);
+        if (binder != null) {
+            return (ArgumentBinder<T>) binder;
+        }
+        final ArgumentBinder<T> created = new ArgumentBinder<T>(type);
+        final ArgumentBinder<?> existing = BINDERS.putIfAbsent(type, created);
+        return existing == null ? created : (ArgumentBinder<T>) existing;
+    }
+
+    /**
+     * Binds the given arguments to a new instance.
+     *
+     * @since 3.0
+     * @param arguments the call arguments, usually {@link de.cosmocode.palava.ipc.IpcCall#getArguments()}
+     * @return a new bound instance
+     * @throws ArgumentBindingException if a required argument is missing or an argument has the wrong type
+     */
+    public T bind(Map<String, ?> arguments) {
+        Preconditions.checkNotNull(arguments, "Arguments");
+        final T target = newInstance();
+
+        long present = 0L;
+        try {
+            for (Map.Entry<String, ?> entry : arguments.entrySet()) {
+                final Slot slot = slots.get(entry.getKey());
+                if (slot == null) continue;
+                slot.set(target, entry.getValue());
+                present |= slot.bit;
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final long missing = required & ~present;
+        if (missing != 0L) {
+            for (Slot slot : slots.values()) {
+                if ((missing & slot.bit) != 0L) {
+                    throw new ArgumentBindingException("Missing argument " + slot.name);
+                }
+            }
+        }
+        return target;
+    }
+
+    private T newInstance() {
+        try {
+            return constructor.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * The conversion strategy of a field, determined once per field.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    private enum Kind {
+
+        STRING, BYTE, SHORT, INT, LONG, FLOAT, DOUBLE, BOOLEAN, CHAR, ENUM, LIST, MAP, OBJECT;
+
+        static Kind of(Class<?> type) {
+            if (type == String.class) {
+                return STRING;
+            } else if (type == byte.class || type == Byte.class) {
+                return BYTE;
+            } else if (type == short.class || type == Short.class) {
+                return SHORT;
+            } else if (type == int.class || type == Integer.class) {
+                return INT;
+            } else if (type == long.class || type == Long.class) {
+                return LONG;
+            } else if (type == float.class || type == Float.class) {
+                return FLOAT;
+            } else if (type == double.class || type == Double.class) {
+                return DOUBLE;
+            } else if (type == boolean.class || type == Boolean.class) {
+                return BOOLEAN;
+            } else if (type == char.class || type == Character.class) {
+                return CHAR;
+            } else if (type.isEnum()) {
+                return ENUM;
+            } else if (type == List.class) {
+                return LIST;
+            } else if (type == Map.class) {
+                return MAP;
+            } else if (type == Object.class) {
+                return OBJECT;
+            } else {
+                throw new IllegalArgumentException("Unsupported argument type " + type);
+            }
+        }
+
+    }
+
+    /**
+     * A single bound field.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    private static final class Slot {
+
+        private final String name;
+
+        private final Field field;
+
+        private final long bit;
+
+        private final Kind kind;
+
+        private final boolean primitive;
+
+        Slot(String name, Field field, long bit) {
+            this.name = name;
+            this.field = field;
+            this.bit = bit;
+            this.kind = Kind.of(field.getType());
+            this.primitive = field.getType().isPrimitive();
+        }
+
+        void set(Object target, Object value) throws IllegalAccessException {
+            if (value == null) {
+                if (primitive) throw invalid("must not be null");
+                field.set(target, null);
+                return;
+            }
+
+            switch (kind) {
+                case STRING: {
+                    if (value instanceof Map<?, ?> || value instanceof List<?>) throw invalid("must be a string");
+                    field.set(target, value.toString());
+                    break;
+                }
+                case BYTE: {
+                    final byte number = (byte) toLong(value, Byte.MIN_VALUE, Byte.MAX_VALUE);
+                    if (primitive) {
+                        field.setByte(target, number);
+                    } else {
+                        field.set(target, Byte.valueOf(number));
+                    }
+                    break;
+                }
+                case SHORT: {
+                    final short number = (short) toLong(value, Short.MIN_VALUE, Short.MAX_VALUE);
+                    if (primitive) {
+                        field.setShort(target, number);
+                    } else {
+                        field.set(target, Short.valueOf(number));
+                    }
+                    break;
+                }
+                case INT: {
+                    final long number = toLong(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                    if (primitive) {
+                        field.setInt(target, (int) number);
+                    } else {
+                        field.set(target, Integer.valueOf((int) number));
+                    }
+                    break;
+                }
+                case LONG: {
+                    final long number = toLong(value, Long.MIN_VALUE, Long.MAX_VALUE);
+                    if (primitive) {
+                        field.setLong(target, number);
+                    } else {
+                        field.set(target, Long.valueOf(number));
+                    }
+                    break;
+                }
+                case FLOAT: {
+                    final double number = toDouble(value);
+                    final float converted = (float) number;
+                    if (Float.isInfinite(converted) && !Double.isInfinite(number)) throw invalid("is out of range");
+                    if (primitive) {
+                        field.setFloat(target, converted);
+                    } else {
+                        field.set(target, Float.valueOf(converted));
+                    }
+                    break;
+                }
+                case DOUBLE: {
+                    final double number = toDouble(value);
+                    if (primitive) {
+                        field.setDouble(target, number);
+                    } else {
+                        field.set(target, Double.valueOf(number));
+                    }
+                    break;
+                }
+                case BOOLEAN: {
+                    final boolean bool = toBoolean(value);
+                    if (primitive) {
+                        field.setBoolean(target, bool);
+                    } else {
+                        field.set(target, Boolean.valueOf(bool));
+                    }
+                    break;
+                }
+                case CHAR: {
+                    final char character = toChar(value);
+                    if (primitive) {
+                        field.setChar(target, character);
+                    } else {
+                        field.set(target, Character.valueOf(character));
+                    }
+                    break;
+                }
+                case ENUM: {
+                    field.set(target, toEnum(field.getType(), value));
+                    break;
+                }
+                case LIST: {
+                    if (!(value instanceof List<?>)) throw invalid("must be a list");
+                    field.set(target, value);
+                    break;
+                }
+                case MAP: {
+                    if (!(value instanceof Map<?, ?>)) throw invalid("must be a map");
+                    field.set(target, value);
+                    break;
+                }
+                default: {
+                    field.set(target, value);
+                    break;
+                }
+            }
+        }
+
+        private long toLong(Object value, long minimum, long maximum) {
+            final long number;
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                number = Number.class.cast(value).longValue();
+            } else if (value instanceof BigInteger) {
+                number = toLong(BigInteger.class.cast(value));
+            } else if (value instanceof BigDecimal) {
+                try {
+                    number = toLong(BigDecimal.class.cast(value).toBigIntegerExact());
+                } catch (ArithmeticException e) {
+                    throw invalid("must be an integer");
+                }
+            } else if (value instanceof Number) {
+                final double decimal = Number.class.cast(value).doubleValue();
+                if (decimal != Math.rint(decimal)) throw invalid("must be an integer");
+                // casting would saturate silently, 2^63 is the first value which doesn't fit
+                if (decimal < -0x1p63 || decimal >= 0x1p63) throw invalid("is out of range");
+                number = (long) decimal;
+            } else if (value instanceof String) {
+                try {
+                    number = Long.parseLong(String.class.cast(value).trim());
+                } catch (NumberFormatException e) {
+                    throw invalid("must be an integer");
+                }
+            } else {
+                throw invalid("must be an integer");
+            }
+            if (number < minimum || number > maximum) throw invalid("is out of range");
+            return number;
+        }
+
+        private long toLong(BigInteger value) {
+            // longValue would silently drop the high bits
+            if (value.bitLength() >= Long.SIZE) throw invalid("is out of range");
+            return value.longValue();
+        }
+
+        private double toDouble(Object value) {
+            if (value instanceof Number) {
+                return Number.class.cast(value).doubleValue();
+            } else if (value instanceof String) {
+                try {
+                    return Double.parseDouble(String.class.cast(value).trim());
+                } catch (NumberFormatException e) {
+                    throw invalid("must be a number");
+                }
+            } else {
+                throw invalid("must be a number");
+            }
+        }
+
+        private boolean toBoolean(Object value) {
+            if (value instanceof Boolean) {
+                return Boolean.class.cast(value).booleanValue();
+            }
+            final String string = value.toString();
+            if ("TRUE".equalsIgnoreCase(string) || "1".equals(string)) {
+                return true;
+            } else if ("FALSE".equalsIgnoreCase(string) || "0".equals(string)) {
+                return false;
+            } else {
+                throw invalid("must be a boolean");
+            }
+        }
+
+        private char toChar(Object value) {
+            if (value instanceof Character) {
+                return Character.class.cast(value).charValue();
+            }
+            final String string = value.toString();
+            if (string.length() != 1) throw invalid("must be a single character");
+            return string.charAt(0);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object toEnum(Class type, Object value) {
+            try {
+                return Enum.valueOf(type, value.toString());
+            } catch (IllegalArgumentException e) {
+                throw invalid("must be one of " + Arrays.toString(type.getEnumConstants()));
+            }
+        }
+
+        private ArgumentBindingException invalid(String reason) {
+            return new ArgumentBindingException("Argument " + name + " " + reason);
+        }
+
+    }
+
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Signals that command arguments could not be bound by an {@link ArgumentBinder}.
+ * The message names the offending argument, which is all a client needs to fix
+ * its call, so the stack trace is omitted. It is an {@link IllegalArgumentException},
+ * commands catching those for their own validation handle binding failures alike.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class ArgumentBindingException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = -3620985117406265873L;
+
+    public ArgumentBindingException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+}
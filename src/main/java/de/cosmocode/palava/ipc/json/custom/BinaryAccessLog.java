@@ -0,0 +1,219 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Writes one fixed-size binary record per call into a rotating {@link MappedLog}.
+ * Used by {@link AccessLogger} instead of text logging if
+ * {@link AccessConfig#BINARY_DIRECTORY} is configured. Use the
+ * {@link AccessLogExporter} to convert segments into csv or json.
+ * 
+ * <pre>
+ * offset  size  content
+ *      0     8  start of the call, milliseconds since the epoch
+ *      8     8  duration in nanoseconds
+ *     16     8  64-bit hash of the session id
+ *     24     1  outcome, 0 = success, 1 = failure
+ *     25     1  length of the identifier
+ *     26     1  length of the command
+ *     27     1  length of the request url
+ *     28    48  identifier (REMOTE_ADDR), ascii
+ *     76   116  command class name, utf-8, truncated from the left
+ *    192   128  request url, utf-8, truncated from the right
+ * </pre>
+ *
+ * @since 3.0
+ * @author agent
+ */
+@Singleton
+final class BinaryAccessLog implements Initializable, Disposable {
+
+    static final String PREFIX = "access";
+
+    static final int RECORD_SIZE = 320;
+    static final int IDENTIFIER_OFFSET = 28;
+    static final int IDENTIFIER_SIZE = 48;
+    static final int COMMAND_OFFSET = IDENTIFIER_OFFSET + IDENTIFIER_SIZE;
+    static final int COMMAND_SIZE = 116;
+    static final int URL_OFFSET = COMMAND_OFFSET + COMMAND_SIZE;
+    static final int URL_SIZE = RECORD_SIZE - URL_OFFSET;
+
+    static final byte SUCCESS = 0;
+    static final byte FAILURE = 1;
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryAccessLog.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(RECORD_SIZE);
+        }
+
+    };
+
+    private final ConcurrentMap<Class<?>, byte[]> commands = new MapMaker().makeMap();
+
+    private final ResultFingerprint fingerprint = new ResultFingerprint();
+
+    private File directory;
+
+    private int segmentSize = 64 * 1024 * 1024;
+
+    private int segments = 16;
+
+    private MappedLog log;
+
+    @Inject(optional = true)
+    void setDirectory(@Named(AccessConfig.BINARY_DIRECTORY) File directory) {
+        this.directory = Preconditions.checkNotNull(directory, "Directory");
+    }
+
+    @Inject(optional = true)
+    void setSegmentSize(@Named(AccessConfig.BINARY_SEGMENT_SIZE) int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    @Inject(optional = true)
+    void setSegments(@Named(AccessConfig.BINARY_SEGMENTS) int segments) {
+        this.segments = segments;
+    }
+
+    @Override
+    public void initialize() throws LifecycleException {
+        if (directory == null) return;
+        log = new MappedLog(directory, PREFIX, segmentSize, segments);
+        LOG.info("Writing binary access log into {}", directory);
+    }
+
+    public boolean isEnabled() {
+        return log != null;
+    }
+
+    /**
+     * Writes a single access record.
+     *
+     * @since 3.0
+     * @param started start of the call in milliseconds since the epoch
+     * @param duration the duration of the call in nanoseconds
+     * @param success whether the call succeeded
+     * @param sessionId the session id, may be null
+     * @param identifier the client identifier, may be null
+     * @param command the executed command class
+     * @param url the request url of the connection, may be null
+     */
+    public void record(long started, long duration, boolean success, String sessionId, String identifier,
+        Class<?> command, String url) {
+
+        final ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        buffer.putLong(started);
+        buffer.putLong(duration);
+        buffer.putLong(sessionId == null ? 0L : fingerprint.of(sessionId));
+        buffer.put(success ? SUCCESS : FAILURE);
+
+        final int identifierLength = identifier == null ? 0 : Math.min(identifier.length(), IDENTIFIER_SIZE);
+        final byte[] name = encode(command);
+        final byte[] urlBytes = url == null ? EMPTY : url.getBytes(UTF_8);
+        final int urlLength = truncate(urlBytes, URL_SIZE);
+        buffer.put((byte) identifierLength);
+        buffer.put((byte) name.length);
+        buffer.put((byte) urlLength);
+
+        for (int i = 0; i < IDENTIFIER_SIZE; i++) {
+            final char c = i < identifierLength ? identifier.charAt(i) : 0;
+            buffer.put(c < 128 ? (byte) c : (byte) '?');
+        }
+
+        buffer.put(name);
+        while (buffer.position() < URL_OFFSET) {
+            buffer.put((byte) 0);
+        }
+        buffer.put(urlBytes, 0, urlLength);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+
+        try {
+            log.append(buffer.array(), RECORD_SIZE);
+        } catch (IOException e) {
+            LOG.warn("Unable to write access record", e);
+        }
+    }
+
+    private byte[] encode(Class<?> command) {
+        final byte[] cached = commands.get(command);
+        if (cached != null) return cached;
+
+        final byte[] bytes = command.getName().getBytes(UTF_8);
+        final byte[] name;
+        if (bytes.length > COMMAND_SIZE) {
+            // keep the simple name, it's the most significant part
+            name = new byte[COMMAND_SIZE];
+            System.arraycopy(bytes, bytes.length - COMMAND_SIZE, name, 0, COMMAND_SIZE);
+        } else {
+            name = bytes;
+        }
+        commands.putIfAbsent(command, name);
+        return name;
+    }
+
+    private static int truncate(byte[] bytes, int limit) {
+        if (bytes.length <= limit) return bytes.length;
+        int length = limit;
+        // don't cut a multi-byte character in half
+        while (length > 0 && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        return length;
+    }
+
+    @Override
+    public void dispose() throws LifecycleException {
+        if (log == null) return;
+        try {
+            log.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LifecycleException(e);
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A compact, tagged binary encoding for the json-like structures used by
+ * the {@link CustomProtocol}: maps, lists, strings, numbers, booleans and null.
+ * All integral numbers are decoded as {@link Long}s, all floating point numbers
+ * as {@link Double}s. Unknown types are encoded using their string representation.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class BinaryCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INTEGRAL = 3;
+    private static final byte DECIMAL = 4;
+    private static final byte STRING = 5;
+    private static final byte LIST = 6;
+    private static final byte MAP = 7;
+
+    private BinaryCodec() {
+
+    }
+
+    /**
+     * Encodes the given value into the given output.
+     *
+     * @since 3.0
+     * @param value the value, may be null
+     * @param output the target
+     * @throws IOException if writing failed
+     */
+    static void encode(Object value, DataOutput output) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            output.writeByte(Boolean.TRUE.equals(value) ? TRUE : FALSE);
+        } else if (value instanceof Integer || value instanceof Long ||
+            value instanceof Short || value instanceof Byte) {
+            output.writeByte(INTEGRAL);
+            output.writeLong(Number.class.cast(value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            output.writeByte(DECIMAL);
+            output.writeDouble(Number.class.cast(value).doubleValue());
+        } else if (value instanceof Map<?, ?>) {
+            final Map<?, ?> map = Map.class.cast(value);
+            output.writeByte(MAP);
+            output.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(String.valueOf(entry.getKey()), output);
+                encode(entry.getValue(), output);
+            }
+        } else if (value instanceof List<?>) {
+            final List<?> list = List.class.cast(value);
+            output.writeByte(LIST);
+            output.writeInt(list.size());
+            for (Object element : list) {
+                encode(element, output);
+            }
+        } else if (value instanceof Object[]) {
+            final Object[] array = Object[].class.cast(value);
+            output.writeByte(LIST);
+            output.writeInt(array.length);
+            for (Object element : array) {
+                encode(element, output);
+            }
+        } else {
+            output.writeByte(STRING);
+            writeString(value.toString(), output);
+        }
+    }
+
+    private static void writeString(String value, DataOutput output) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Decodes the next value of the given input.
+     *
+     * @since 3.0
+     * @param input the source
+     * @return the decoded value, may be null
+     * @throws IOException if reading failed or the input is corrupt
+     */
+    static Object decode(DataInput input) throws IOException {
+        final byte tag = input.readByte();
+        switch (tag) {
+            case NULL: {
+                return null;
+            }
+            case TRUE: {
+                return Boolean.TRUE;
+            }
+            case FALSE: {
+                return Boolean.FALSE;
+            }
+            case INTEGRAL: {
+                return Long.valueOf(input.readLong());
+            }
+            case DECIMAL: {
+                return Double.valueOf(input.readDouble());
+            }
+            case STRING: {
+                return readString(input);
+            }
+            case LIST: {
+                final int size = input.readInt();
+                final List<Object> list = Lists.newArrayListWithCapacity(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(decode(input));
+                }
+                return list;
+            }
+            case MAP: {
+                final int size = input.readInt();
+                final Map<String, Object> map = Maps.newHashMapWithExpectedSize(size);
+                for (int i = 0; i < size; i++) {
+                    map.put(readString(input), decode(input));
+                }
+                return map;
+            }
+            default: {
+                throw new IOException("Unknown tag " + tag);
+            }
+        }
+    }
+
+    private static String readString(DataInput input) throws IOException {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+}
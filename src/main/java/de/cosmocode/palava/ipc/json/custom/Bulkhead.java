@@ -0,0 +1,175 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the number of concurrent executions of one group of calls and
+ * collects queue length and wait time statistics. Waiting threads are
+ * served in arrival order. A bulkhead without permits is unlimited.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class Bulkhead {
+
+    private final String name;
+
+    private final int permits;
+
+    private final Semaphore semaphore;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger maximumWaiting = new AtomicInteger();
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong maximumWaitTime = new AtomicLong();
+
+    Bulkhead(String name, int permits) {
+        this.name = name;
+        this.permits = permits;
+        this.semaphore = permits > 0 ? new Semaphore(permits, true) : null;
+    }
+
+    /**
+     * Acquires an execution slot, waiting at most the given time.
+     *
+     * @since 3.0
+     * @param timeout the maximum time to wait
+     * @param unit the unit of timeout
+     * @throws OverloadedException if no slot became available in time
+     */
+    public void acquire(long timeout, TimeUnit unit) {
+        if (semaphore == null) return;
+
+        if (semaphore.tryAcquire()) {
+            acquired.incrementAndGet();
+            return;
+        }
+
+        final long started = System.nanoTime();
+        final int queued = waiting.incrementAndGet();
+        updateMaximum(maximumWaiting, queued);
+
+        boolean success = false;
+        try {
+            success = semaphore.tryAcquire(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.decrementAndGet();
+            final long waited = System.nanoTime() - started;
+            waitTime.addAndGet(waited);
+            updateMaximum(maximumWaitTime, waited);
+        }
+
+        if (success) {
+            acquired.incrementAndGet();
+        } else {
+            rejected.incrementAndGet();
+            throw new OverloadedException(name + " is overloaded");
+        }
+    }
+
+    /**
+     * Releases a slot previously obtained using {@link #acquire(long, TimeUnit)}.
+     *
+     * @since 3.0
+     */
+    public void release() {
+        if (semaphore == null) return;
+        semaphore.release();
+    }
+
+    private static void updateMaximum(AtomicInteger maximum, int value) {
+        int current = maximum.get();
+        while (value > current && !maximum.compareAndSet(current, value)) {
+            current = maximum.get();
+        }
+    }
+
+    private static void updateMaximum(AtomicLong maximum, long value) {
+        long current = maximum.get();
+        while (value > current && !maximum.compareAndSet(current, value)) {
+            current = maximum.get();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    /**
+     * Returns the number of currently executing calls.
+     *
+     * @since 3.0
+     * @return the number of used slots
+     */
+    public int getActive() {
+        return semaphore == null ? 0 : permits - semaphore.availablePermits();
+    }
+
+    /**
+     * Returns the number of calls currently waiting for a slot.
+     *
+     * @since 3.0
+     * @return the current queue length
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    public int getMaximumWaiting() {
+        return maximumWaiting.get();
+    }
+
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getWaitTime(TimeUnit unit) {
+        return unit.convert(waitTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaximumWaitTime(TimeUnit unit) {
+        return unit.convert(maximumWaitTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [permits: %d, active: %d, waiting: %d, max waiting: %d, " +
+            "acquired: %d, rejected: %d, wait time: %dms, max wait time: %dms]",
+            name, permits, getActive(), getWaiting(), getMaximumWaiting(), getAcquired(), getRejected(),
+            getWaitTime(TimeUnit.MILLISECONDS), getMaximumWaitTime(TimeUnit.MILLISECONDS));
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders accumulated usages by total cpu time, highest first.
+ *
+ * @since 3.0
+ * @author agent
+ */
+enum ByCpuTime implements Comparator<ByCpuTime.Measured> {
+
+    INSTANCE;
+
+    @Override
+    public int compare(Measured left, Measured right) {
+        final long l = left.getCpuTime(TimeUnit.NANOSECONDS);
+        final long r = right.getCpuTime(TimeUnit.NANOSECONDS);
+        return l < r ? 1 : (l == r ? 0 : -1);
+    }
+
+    /**
+     * Anything which accumulates cpu time.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    interface Measured {
+
+        /**
+         * Returns the accumulated cpu time.
+         *
+         * @since 3.0
+         * @param unit the desired unit
+         * @return the total cpu time in the given unit
+         */
+        long getCpuTime(TimeUnit unit);
+
+    }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+
+import de.cosmocode.palava.ipc.IpcCommand;
+
+/**
+ * Aggregates wall clock time, cpu time and allocated bytes per {@link IpcCommand} class.
+ * Used by {@link AccessLogger} if {@link AccessConfig#CALL_RESOURCES} is enabled,
+ * which adds it as {@link MetricsSource} to the {@link ProtocolMetrics}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class CommandStatistics implements MetricsSource {
+
+    private final ConcurrentMap<Class<?>, Usage> usages = new MapMaker().makeMap();
+
+    /**
+     * Records a single command execution.
+     *
+     * @since 3.0
+     * @param command the executed command class
+     * @param wallTime the elapsed time in milliseconds
+     * @param cpuTime the used cpu time in nanoseconds, or a negative value if not available
+     * @param allocatedBytes the allocated bytes, or a negative value if not available
+     */
+    public void record(Class<?> command, long wallTime, long cpuTime, long allocatedBytes) {
+        Usage usage = usages.get(command);
+        if (usage == null) {
+            final Usage created = new Usage(command);
+            usage = usages.putIfAbsent(command, created);
+            if (usage == null) {
+                usage = created;
+            }
+        }
+        usage.record(wallTime, cpuTime, allocatedBytes);
+    }
+
+    /**
+     * Provides a snapshot of all usages, sorted by total cpu time descending.
+     *
+     * @since 3.0
+     * @return a sorted copy of all usages
+     */
+    public List<Usage> getUsages() {
+        final List<Usage> list = Lists.newArrayList(usages.values());
+        Collections.sort(list, ByCpuTime.INSTANCE);
+        return list;
+    }
+
+    /**
+     * Logs all collected usages using the given logger.
+     *
+     * @since 3.0
+     * @param log the logger to use
+     */
+    public void log(Logger log) {
+        for (Usage usage : getUsages()) {
+            log.info("{}", usage);
+        }
+    }
+
+    @Override
+    public void writeTo(PrometheusFormat format) throws IOException {
+        // only contains existing command classes, hence bounded
+        final List<Usage> all = getUsages();
+        format.header("palava_custom_command_calls_total", "counter", "Executed calls by command.");
+        for (Usage usage : all) {
+            format.sample("palava_custom_command_calls_total", "command", usage.getCommand().getName(),
+                usage.getCalls());
+        }
+        format.header("palava_custom_command_wall_seconds_total", "counter", "Wall clock time by command.");
+        for (Usage usage : all) {
+            format.sample("palava_custom_command_wall_seconds_total", "command", usage.getCommand().getName(),
+                usage.getWallTime() / 1e3);
+        }
+        format.header("palava_custom_command_cpu_seconds_total", "counter", "Cpu time by command.");
+        for (Usage usage : all) {
+            format.sample("palava_custom_command_cpu_seconds_total", "command", usage.getCommand().getName(),
+                usage.getCpuTime(TimeUnit.NANOSECONDS) / 1e9);
+        }
+        format.header("palava_custom_command_allocated_bytes_total", "counter", "Allocated bytes by command.");
+        for (Usage usage : all) {
+            format.sample("palava_custom_command_allocated_bytes_total", "command", usage.getCommand().getName(),
+                usage.getAllocatedBytes());
+        }
+    }
+
+    /**
+     * Accumulated resource usage of one command class.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    static final class Usage implements ByCpuTime.Measured {
+
+        private final Class<?> command;
+
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong wallTime = new AtomicLong();
+        private final AtomicLong cpuTime = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+
+        Usage(Class<?> command) {
+            this.command = command;
+        }
+
+        void record(long wall, long cpu, long allocated) {
+            calls.incrementAndGet();
+            wallTime.addAndGet(wall);
+            if (cpu > 0) {
+                cpuTime.addAndGet(cpu);
+            }
+            if (allocated > 0) {
+                allocatedBytes.addAndGet(allocated);
+            }
+        }
+
+        public Class<?> getCommand() {
+            return command;
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        /**
+         * Returns the accumulated wall clock time.
+         *
+         * @since 3.0
+         * @return the total wall clock time in milliseconds
+         */
+        public long getWallTime() {
+            return wallTime.get();
+        }
+
+        @Override
+        public long getCpuTime(TimeUnit unit) {
+            return unit.convert(cpuTime.get(), TimeUnit.NANOSECONDS);
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes.get();
+        }
+
+        @Override
+        public String toString() {
+            final long count = Math.max(1L, getCalls());
+            return String.format("%s [calls: %d, wall: %dms, cpu: %dms, allocated: %d bytes, " +
+                "avg wall: %dms, avg cpu: %dms, avg allocated: %d bytes]",
+                command.getName(), getCalls(), getWallTime(), getCpuTime(TimeUnit.MILLISECONDS),
+                getAllocatedBytes(), getWallTime() / count, getCpuTime(TimeUnit.MILLISECONDS) / count,
+                getAllocatedBytes() / count);
+        }
+
+    }
+
+}
@@ -34,9 +34,12 @@ final class CurrentBrowser implements Browser {
 
     private final IpcCall call;
 
+    private final StringPool pool;
+
     @Inject
-    CurrentBrowser(IpcCall call) {
+    CurrentBrowser(IpcCall call, StringPool pool) {
         this.call = Preconditions.checkNotNull(call, "Call");
+        this.pool = Preconditions.checkNotNull(pool, "Pool");
     }
 
     private String getKey(String key) {
@@ -48,7 +51,7 @@ final class CurrentBrowser implements Browser {
         if (value == null) {
             throw new UnsupportedOperationException("Information " + key + " is null");
         }
-        return value.toString();
+        return pool.intern(key, value.toString());
     }
 
     private boolean getBoolKey(String key) {
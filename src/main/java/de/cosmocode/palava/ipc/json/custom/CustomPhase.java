@@ -0,0 +1,68 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * The phases of {@link CustomProtocol#process(java.util.Map, de.cosmocode.palava.ipc.protocol.DetachedConnection)}
+ * which are reported to a {@link CustomPhaseTracer}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public enum CustomPhase {
+
+    /**
+     * Notification of all {@link CustomPreCallEvent} listeners.
+     */
+    PRE_CALL,
+
+    /**
+     * Validation of the meta information and rate limiting by client and session.
+     */
+    RATE_LIMIT,
+
+    /**
+     * Resolution of the session.
+     */
+    SESSION,
+
+    /**
+     * Creation of the call, notification of create listeners and entering the call scope.
+     */
+    CALL_SETUP,
+
+    /**
+     * Execution of the command, including all filters.
+     */
+    EXECUTION,
+
+    /**
+     * Encoding of a thrown exception, only reported if the command failed.
+     */
+    ENCODING,
+
+    /**
+     * Notification of destroy listeners and exiting the call scope.
+     */
+    CALL_TEARDOWN,
+
+    /**
+     * Notification of all {@link CustomPostCallEvent} listeners.
+     */
+    POST_CALL;
+
+}
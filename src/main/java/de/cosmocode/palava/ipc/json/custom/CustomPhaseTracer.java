@@ -0,0 +1,40 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Callback which receives the duration of every {@link CustomPhase} processed
+ * by the {@link CustomProtocol}. Bind an implementation of this interface
+ * to enable tracing, e.g. using the {@link PhaseStatisticsModule}.
+ * Implementations are called by all worker threads concurrently and should
+ * therefore be thread-safe and cheap.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public interface CustomPhaseTracer {
+
+    /**
+     * Will be called after the given phase has been completed.
+     *
+     * @since 3.0
+     * @param phase the completed phase
+     * @param duration the duration of the phase in nanoseconds
+     */
+    void phaseCompleted(CustomPhase phase, long duration);
+
+}
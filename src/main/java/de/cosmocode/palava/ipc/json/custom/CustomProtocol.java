@@ -42,6 +42,8 @@ import de.cosmocode.palava.ipc.IpcSession;
 import de.cosmocode.palava.ipc.IpcSessionProvider;
 import de.cosmocode.palava.ipc.MapIpcArguments;
 import de.cosmocode.palava.ipc.json.Json;
+import de.cosmocode.palava.ipc.json.custom.MalformedRequestException.Kind;
+import de.cosmocode.palava.ipc.json.custom.ProtocolMetrics.SessionLookup;
 import de.cosmocode.palava.ipc.protocol.DetachedCall;
 import de.cosmocode.palava.ipc.protocol.DetachedConnection;
 import de.cosmocode.palava.ipc.protocol.Protocol;
@@ -63,10 +65,15 @@ import de.cosmocode.palava.ipc.protocol.ProtocolException;
  *     "command": "fqcn.of.the.command.to.be.Executed",
  *     "arguments": {
  *         ...
- *     }
+ *     },
+ *     "fingerprint": "optional fingerprint of the previous result"
  * }
  * </pre>
  * 
+ * If the request contains a fingerprint (which may be null), the response
+ * will carry the fingerprint of the new result. If both are equal, the
+ * result will be omitted and "notModified" will be set to true instead.
+ * 
  * <pre>
  * {
  *     "protocol": "palava/2.0",
@@ -74,6 +81,8 @@ import de.cosmocode.palava.ipc.protocol.ProtocolException;
  *     "result": {
  *         ...
  *     },
+ *     "fingerprint": "fingerprint of the result", //optional
+ *     "notModified": true, //optional, replaces result
  *     "exception": { //optional
  *         "name": "fqcn.of.the.occured.Exception",
  *         "message": "message of the exception",
@@ -106,6 +115,8 @@ public final class CustomProtocol extends MapProtocol<String, Object> implements
     public static final String ARGUMENTS = "arguments";
     public static final String RESULT = "result";
     public static final String EXCEPTION = "exception";
+    public static final String FINGERPRINT = "fingerprint";
+    public static final String NOT_MODIFIED = "notModified";
 
     private static final Logger LOG = LoggerFactory.getLogger(CustomProtocol.class);
     
@@ -122,28 +133,67 @@ public final class CustomProtocol extends MapProtocol<String, Object> implements
     
     private final IpcCallScope scope;
 
+    private final RateLimiter rateLimiter;
+
+    private final StringPool pool;
+
+    private final RequestRecorder recorder;
+
+    private final PriorityLanes lanes;
+
+    private final Warmup warmup;
+
+    private final ProtocolMetrics metrics;
+
     private final ThrowableEncoder encoder = new ThrowableEncoder();
 
+    private final MalformedRequests malformedRequests;
+
+    private final ResultFingerprint fingerprint = new ResultFingerprint();
+
+    private CustomPhaseTracer tracer = NoPhaseTracer.INSTANCE;
+
     @Inject
     CustomProtocol(Registry registry,
         @Proxy IpcCallCreateEvent createEvent,
         @SilentProxy IpcCallDestroyEvent destroyEvent,
         IpcSessionProvider provider,
         IpcCommandExecutor executor,
-        IpcCallScope scope) {
+        IpcCallScope scope,
+        RateLimiter rateLimiter,
+        StringPool pool,
+        RequestRecorder recorder,
+        PriorityLanes lanes,
+        Warmup warmup,
+        MalformedRequests malformedRequests,
+        ProtocolMetrics metrics) {
         this.registry = Preconditions.checkNotNull(registry, "Registry");
         this.createEvent = Preconditions.checkNotNull(createEvent, "CreateEvent");
         this.destroyEvent = Preconditions.checkNotNull(destroyEvent, "DestroyEvent");
         this.provider = Preconditions.checkNotNull(provider, "SessionProvider");
         this.executor = Preconditions.checkNotNull(executor, "CommandExecutor");
         this.scope = Preconditions.checkNotNull(scope, "Scope");
+        this.rateLimiter = Preconditions.checkNotNull(rateLimiter, "RateLimiter");
+        this.pool = Preconditions.checkNotNull(pool, "Pool");
+        this.recorder = Preconditions.checkNotNull(recorder, "Recorder");
+        this.lanes = Preconditions.checkNotNull(lanes, "Lanes");
+        this.warmup = Preconditions.checkNotNull(warmup, "Warmup");
+        this.malformedRequests = Preconditions.checkNotNull(malformedRequests, "MalformedRequests");
+        this.metrics = Preconditions.checkNotNull(metrics, "Metrics");
 
         preCallEvent = registry.proxy(CustomPreCallEvent.class);
         postCallEvent = registry.proxy(CustomPostCallEvent.class);
     }
     
+    @Inject(optional = true)
+    void setTracer(CustomPhaseTracer tracer) {
+        this.tracer = Preconditions.checkNotNull(tracer, "Tracer");
+    }
+
     @Override
     public void initialize() throws LifecycleException {
+        // warm up before any real request can reach this protocol
+        warmup.run(this);
         registry.register(Key.get(Protocol.class, Json.class), this);
     }
     
@@ -155,18 +205,72 @@ public final class CustomProtocol extends MapProtocol<String, Object> implements
     @Override
     public Map<String, Object> process(Map<String, Object> request, DetachedConnection connection)
         throws ProtocolException {
+        return process(request, connection, true);
+    }
+
+    /**
+     * Processes the given request.
+     *
+     * @since 3.0
+     * @param request the request
+     * @param connection the current connection
+     * @param live false for synthetic requests of the {@link Warmup} and the {@link ReplayDriver},
+     *        which bypass the capture, the rate limiter, the phase tracer and the metrics
+     * @return the response
+     * @throws ProtocolException if the request is malformed
+     */
+    Map<String, Object> process(Map<String, Object> request, DetachedConnection connection, boolean live)
+        throws ProtocolException {
+
+        final long receivedNanos = System.nanoTime();
+        if (live) metrics.request(request.get(PROTOCOL));
+
+        // capture the request as received, listeners and the pool modify it in place
+        final boolean capturing = live && recorder.begin(request);
+        try {
+            return handle(request, connection, receivedNanos, live);
+        } finally {
+            if (capturing) {
+                recorder.finish(System.nanoTime() - receivedNanos);
+            }
+        }
+    }
+
+    private Map<String, Object> handle(Map<String, Object> request, DetachedConnection connection,
+        long receivedNanos, boolean live) throws ProtocolException {
+
+        final CustomPhaseTracer t = tracer;
+        final boolean tracing = live && t != NoPhaseTracer.INSTANCE;
+        long started = tracing ? System.nanoTime() : 0L;
 
         final Map<String, Object> response = Maps.newHashMap();
         response.put(PROTOCOL, VERSION);
 
         // trigger manipulation event
         preCallEvent.eventPreCall(request, response, connection);
+        if (tracing) started = trace(t, CustomPhase.PRE_CALL, started);
+
+        final Map<?, ?> meta = cast(request.get(META), Map.class, Kind.INVALID_META);
+        checkNotNull(meta, Kind.MISSING_META);
 
-        final Map<?, ?> meta = Map.class.cast(request.get(META));
-        checkNotNull(meta, META);
+        // share repeated values like user agents and addresses across requests
+        pool.internAll(meta);
         
-        final String identifier = String.class.cast(meta.get(IDENTIFIER));
-        final String sessionId = String.class.cast(request.get(SESSION));
+        final String identifier = cast(meta.get(IDENTIFIER), String.class, Kind.INVALID_IDENTIFIER);
+        final String sessionId = cast(request.get(SESSION), String.class, Kind.INVALID_SESSION);
+
+        try {
+            if (live) rateLimiter.acquire(identifier, sessionId);
+        } catch (RateLimitExceededException e) {
+            if (tracing) started = trace(t, CustomPhase.RATE_LIMIT, started);
+            metrics.rateLimited();
+            response.put(SESSION, sessionId);
+            response.put(EXCEPTION, encoder.encode(e));
+            postCallEvent.eventPostCall(request, response, connection);
+            if (tracing) trace(t, CustomPhase.POST_CALL, started);
+            return response;
+        }
+        if (tracing) started = trace(t, CustomPhase.RATE_LIMIT, started);
 
         final IpcSession session;
         
@@ -175,34 +279,40 @@ public final class CustomProtocol extends MapProtocol<String, Object> implements
             
             if (!attached.getSessionId().equals(sessionId)) {
                 LOG.trace("SessionId of attached session differs from requested");
+                if (live) metrics.sessionLookup(SessionLookup.SESSION_CHANGED);
                 session = provider.getSession(sessionId, identifier);
             } else if (!attached.getIdentifier().equals(identifier)) {
                 LOG.trace("Identifier of attached session differs from requested");
+                if (live) metrics.sessionLookup(SessionLookup.IDENTIFIER_CHANGED);
                 session = provider.getSession(sessionId, identifier);
             } else if (attached.isExpired()) {
                 LOG.trace("Attached session is expired, using new");
+                if (live) metrics.sessionLookup(SessionLookup.EXPIRED);
                 session = provider.getSession(sessionId, identifier);
             } else {
                 LOG.trace("Re-using already attached session");
+                if (live) metrics.sessionReused();
                 session = attached;
             }
             
             connection.attachTo(session);
         } else {
             LOG.trace("Connection is not yet attached, retrieving session {}/{}", sessionId, identifier);
+            if (live) metrics.sessionLookup(SessionLookup.NOT_ATTACHED);
             session = provider.getSession(sessionId, identifier);
             connection.attachTo(session);
         }
         
         LOG.trace("Using {}", session);
         response.put(SESSION, session.getSessionId());
+        if (tracing) started = trace(t, CustomPhase.SESSION, started);
 
         final Object command = request.get(COMMAND);
-        checkNotNull(command, COMMAND);
+        checkNotNull(command, Kind.MISSING_COMMAND);
         
         @SuppressWarnings("unchecked")
-        final Map<String, Object> rawArguments = Map.class.cast(request.get(ARGUMENTS));
-        checkNotNull(rawArguments, ARGUMENTS);
+        final Map<String, Object> rawArguments = cast(request.get(ARGUMENTS), Map.class, Kind.INVALID_ARGUMENTS);
+        checkNotNull(rawArguments, Kind.MISSING_ARGUMENTS);
         
         final IpcArguments arguments = new MapIpcArguments(rawArguments);
         
@@ -211,38 +321,86 @@ public final class CustomProtocol extends MapProtocol<String, Object> implements
 
         // make the meta informations available in the call scope
         call.put(META, meta);
+        if (!live) call.put(Warmup.MARKER, Boolean.TRUE);
         
         createEvent.eventIpcCallCreate(call);
         scope.enter(call);
+        if (tracing) started = trace(t, CustomPhase.CALL_SETUP, started);
         
         try {
-            final Map<String, Object> result = executor.execute(command.toString(), call);
-            response.put(RESULT, result);
+            final Bulkhead lane = lanes.acquire(command.toString(), meta);
+            final Map<String, Object> result;
+            try {
+                result = executor.execute(command.toString(), call);
+            } finally {
+                lane.release();
+            }
+            if (request.containsKey(FINGERPRINT)) {
+                final String current = fingerprint.toString(result);
+                response.put(FINGERPRINT, current);
+                if (current.equals(request.get(FINGERPRINT))) {
+                    response.put(NOT_MODIFIED, Boolean.TRUE);
+                    if (live) metrics.notModified();
+                } else {
+                    response.put(RESULT, result);
+                }
+            } else {
+                response.put(RESULT, result);
+            }
+            if (tracing) started = trace(t, CustomPhase.EXECUTION, started);
         /* CHECKSTYLE:OFF */
         } catch (Exception e) {
         /* CHECKSTYLE:ON */
+            if (tracing) started = trace(t, CustomPhase.EXECUTION, started);
             response.remove(RESULT);
+            response.remove(FINGERPRINT);
+            response.remove(NOT_MODIFIED);
             response.put(EXCEPTION, encoder.encode(e));
+            if (live) metrics.exception(e);
+            if (tracing) started = trace(t, CustomPhase.ENCODING, started);
         } finally {
             destroyEvent.eventIpcCallDestroy(call);
             scope.exit();
         }
+        if (tracing) started = trace(t, CustomPhase.CALL_TEARDOWN, started);
 
         // trigger manipulation events
         postCallEvent.eventPostCall(request, response, connection);
+        if (tracing) trace(t, CustomPhase.POST_CALL, started);
+
+        if (live) metrics.completed(System.nanoTime() - receivedNanos);
 
         return response;
     }
     
-    private void checkNotNull(Object reference, Object args) throws ProtocolException {
+    private long trace(CustomPhaseTracer t, CustomPhase phase, long started) {
+        final long now = System.nanoTime();
+        t.phaseCompleted(phase, now - started);
+        return now;
+    }
+    
+    private <T> T cast(Object reference, Class<T> type, Kind kind) throws ProtocolException {
+        if (reference == null || type.isInstance(reference)) {
+            return type.cast(reference);
+        }
+        throw malformedRequests.reject(kind);
+    }
+    
+    private void checkNotNull(Object reference, Kind kind) throws ProtocolException {
         if (reference == null) {
-            throw new ProtocolException(String.format("Missing %s", args));
+            throw malformedRequests.reject(kind);
         }
     }
     
     @Override
     public Object onError(Throwable t, Map<String, Object> request) {
-        LOG.warn("Unexpected exception in custom protocol", t);
+        if (t instanceof MalformedRequestException) {
+            // counted by kind, not as an exception
+            malformedRequests.log(MalformedRequestException.class.cast(t));
+        } else {
+            LOG.warn("Unexpected exception in custom protocol", t);
+            metrics.exception(t);
+        }
         final Map<String, Object> response = Maps.newHashMap();
         response.put(PROTOCOL, VERSION);
         response.put(SESSION, Map.class.cast(request).get(SESSION));
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link ThreadFactory} for the background threads of this module. Threads
+ * are daemons, so they never keep the framework from shutting down, and carry
+ * the given name, so they can be told apart in thread dumps.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+
+    private final String name;
+
+    DaemonThreadFactory(String name) {
+        this.name = Preconditions.checkNotNull(name, "Name");
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Lock-free count, total, maximum and power-of-two histogram of durations.
+ * Percentiles are estimated using the upper bound of the matching bucket,
+ * so they are never lower than the real percentile and at most twice as high.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class DurationHistogram {
+
+    // bucket i holds all durations d with 2^(i-1) <= d < 2^i
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a single duration.
+     *
+     * @since 3.0
+     * @param duration the duration in nanoseconds, negative values are treated as zero
+     */
+    public void record(long duration) {
+        final long value = Math.max(0L, duration);
+        buckets.incrementAndGet(Math.min(Long.SIZE - 1, Long.SIZE - Long.numberOfLeadingZeros(value)));
+        count.incrementAndGet();
+        total.addAndGet(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Adds all durations recorded by the given histogram to this one.
+     *
+     * @since 3.0
+     * @param other the histogram to add
+     */
+    public void add(DurationHistogram other) {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.addAndGet(i, other.buckets.get(i));
+        }
+        count.addAndGet(other.count.get());
+        total.addAndGet(other.total.get());
+
+        final long value = other.max.get();
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotal(TimeUnit unit) {
+        return unit.convert(total.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMax(TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Estimates the given percentile.
+     *
+     * @since 3.0
+     * @param percentile the percentile, e.g. 0.99
+     * @param unit the desired unit
+     * @return the estimated percentile in the given unit
+     * @throws IllegalArgumentException if percentile is not in (0, 1]
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        Preconditions.checkArgument(percentile > 0 && percentile <= 1, "Percentile must be in (0, 1]");
+        return unit.convert(percentile(percentile), TimeUnit.NANOSECONDS);
+    }
+
+    private long percentile(double percentile) {
+        final long threshold = (long) Math.ceil(count.get() * percentile);
+        if (threshold == 0) return 0L;
+
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= threshold) {
+                return Math.min(max.get(), i == 0 ? 0L : (1L << i) - 1);
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Writes this histogram as a prometheus summary in seconds, including the
+     * median, the 90th and the 99th percentile.
+     *
+     * @since 3.0
+     * @param format the target format
+     * @param name the metric name
+     * @param label the label name, may be null
+     * @param value the label value, may be null
+     * @throws IOException if writing failed
+     */
+    public void writeTo(PrometheusFormat format, String name, String label, String value) throws IOException {
+        format.quantile(name, label, value, "0.5", seconds(percentile(0.5)));
+        format.quantile(name, label, value, "0.9", seconds(percentile(0.9)));
+        format.quantile(name, label, value, "0.99", seconds(percentile(0.99)));
+        format.sample(name + "_sum", label, value, seconds(total.get()));
+        format.sample(name + "_count", label, value, count.get());
+    }
+
+    private double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+}
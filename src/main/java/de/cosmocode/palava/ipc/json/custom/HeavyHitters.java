@@ -0,0 +1,293 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Tracks the most frequent and the most expensive commands, sessions and
+ * identifiers using a fixed amount of memory. Keys are counted in tumbling
+ * windows, snapshots combine the current and the previous window, which
+ * approximates a sliding window of one to two window lengths.
+ * Fed by {@link AccessLogger} if {@link AccessConfig#HEAVY_HITTERS} is enabled
+ * and registered as {@link HeavyHittersMBean} in the platform mbean server.
+ *
+ * @since 3.0
+ * @author agent
+ */
+@Singleton
+public final class HeavyHitters implements HeavyHittersMBean, Initializable, Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HeavyHitters.class);
+
+    private static final String OBJECT_NAME = "de.cosmocode.palava.ipc.json.custom:type=HeavyHitters";
+
+    private boolean enabled;
+
+    private int capacity = 64;
+
+    private long window = 1;
+
+    private TimeUnit windowUnit = TimeUnit.MINUTES;
+
+    private ObjectName objectName;
+
+    private volatile Window current;
+
+    private volatile Window previous;
+
+    /**
+     * The tracked key of a call.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    public static enum Dimension {
+
+        COMMAND,
+
+        SESSION,
+
+        IDENTIFIER;
+
+    }
+
+    @Inject(optional = true)
+    void setEnabled(@Named(AccessConfig.HEAVY_HITTERS) boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Inject(optional = true)
+    void setCapacity(@Named(AccessConfig.HEAVY_HITTERS_CAPACITY) int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    @Inject(optional = true)
+    void setWindow(@Named(AccessConfig.HEAVY_HITTERS_WINDOW) long window) {
+        Preconditions.checkArgument(window > 0, "Window must be positive");
+        this.window = window;
+    }
+
+    @Inject(optional = true)
+    void setWindowUnit(@Named(AccessConfig.HEAVY_HITTERS_WINDOW_UNIT) TimeUnit windowUnit) {
+        this.windowUnit = Preconditions.checkNotNull(windowUnit, "WindowUnit");
+    }
+
+    @Override
+    public void initialize() throws LifecycleException {
+        final long now = System.currentTimeMillis();
+        current = new Window(now, capacity);
+        previous = new Window(now, capacity);
+
+        if (!enabled) return;
+
+        try {
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (InstanceAlreadyExistsException e) {
+            LOG.warn("{} is already registered, e.g. by another injector, skipping registration", OBJECT_NAME);
+        } catch (JMException e) {
+            throw new LifecycleException(e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a call.
+     *
+     * @since 3.0
+     * @param command the command name
+     * @param sessionId the session id, may be null
+     * @param identifier the client identifier, may be null
+     * @param cost the cost of the call in milliseconds
+     */
+    public void record(String command, String sessionId, String identifier, long cost) {
+        final long now = System.currentTimeMillis();
+        Window w = current;
+        if (w == null) return;
+        if (now - w.started >= windowUnit.toMillis(window)) {
+            w = rotate(now);
+        }
+        w.record(Dimension.COMMAND, command, cost);
+        w.record(Dimension.SESSION, sessionId, cost);
+        w.record(Dimension.IDENTIFIER, identifier, cost);
+    }
+
+    private synchronized Window rotate(long now) {
+        final Window w = current;
+        if (now - w.started < windowUnit.toMillis(window)) {
+            // already rotated by another thread
+            return w;
+        }
+        final Window next = new Window(now, capacity);
+        previous = w;
+        current = next;
+        return next;
+    }
+
+    /**
+     * Provides the most frequent keys of the given dimension.
+     *
+     * @since 3.0
+     * @param dimension the dimension
+     * @param limit the maximum number of keys
+     * @return an ordered map of keys to their estimated number of calls, most frequent first
+     */
+    public Map<String, Long> getMostFrequent(Dimension dimension, int limit) {
+        return snapshot(dimension, false, limit);
+    }
+
+    /**
+     * Provides the most expensive keys of the given dimension.
+     *
+     * @since 3.0
+     * @param dimension the dimension
+     * @param limit the maximum number of keys
+     * @return an ordered map of keys to their estimated costs in milliseconds, most expensive first
+     */
+    public Map<String, Long> getMostExpensive(Dimension dimension, int limit) {
+        return snapshot(dimension, true, limit);
+    }
+
+    private Map<String, Long> snapshot(Dimension dimension, boolean cost, int limit) {
+        final Map<String, SpaceSaving.Counter<String>> merged = Maps.newHashMap();
+        final Window p = previous;
+        final Window c = current;
+        if (p != null) p.get(dimension, cost).drainTo(merged);
+        if (c != null) c.get(dimension, cost).drainTo(merged);
+
+        final List<SpaceSaving.Counter<String>> top = SpaceSaving.top(merged.values(), limit);
+        final Map<String, Long> result = Maps.newLinkedHashMap();
+        for (SpaceSaving.Counter<String> counter : top) {
+            result.put(counter.getKey(), counter.getCount());
+        }
+        return result;
+    }
+
+    private String[] format(Map<String, Long> map) {
+        final String[] array = new String[map.size()];
+        int i = 0;
+        for (Map.Entry<String, Long> entry : map.entrySet()) {
+            array[i++] = entry.getKey() + "=" + entry.getValue();
+        }
+        return array;
+    }
+
+    @Override
+    public String[] getMostFrequentCommands() {
+        return format(getMostFrequent(Dimension.COMMAND, capacity));
+    }
+
+    @Override
+    public String[] getMostExpensiveCommands() {
+        return format(getMostExpensive(Dimension.COMMAND, capacity));
+    }
+
+    @Override
+    public String[] getMostFrequentSessions() {
+        return format(getMostFrequent(Dimension.SESSION, capacity));
+    }
+
+    @Override
+    public String[] getMostExpensiveSessions() {
+        return format(getMostExpensive(Dimension.SESSION, capacity));
+    }
+
+    @Override
+    public String[] getMostFrequentIdentifiers() {
+        return format(getMostFrequent(Dimension.IDENTIFIER, capacity));
+    }
+
+    @Override
+    public String[] getMostExpensiveIdentifiers() {
+        return format(getMostExpensive(Dimension.IDENTIFIER, capacity));
+    }
+
+    @Override
+    public void dispose() throws LifecycleException {
+        if (objectName == null) return;
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOG.warn("Unable to unregister " + objectName, e);
+        }
+    }
+
+    /**
+     * A single tumbling window containing one frequency and one cost tracker per dimension.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    private static final class Window {
+
+        private final long started;
+
+        private final Map<Dimension, SpaceSaving<String>> frequencies = Maps.newEnumMap(Dimension.class);
+
+        private final Map<Dimension, SpaceSaving<String>> costs = Maps.newEnumMap(Dimension.class);
+
+        Window(long started, int capacity) {
+            this.started = started;
+            for (Dimension dimension : Dimension.values()) {
+                frequencies.put(dimension, new SpaceSaving<String>(capacity));
+                costs.put(dimension, new SpaceSaving<String>(capacity));
+            }
+        }
+
+        void record(Dimension dimension, String key, long cost) {
+            if (key == null) return;
+            frequencies.get(dimension).offer(key, 1L);
+            if (cost > 0) {
+                costs.get(dimension).offer(key, cost);
+            }
+        }
+
+        SpaceSaving<String> get(Dimension dimension, boolean cost) {
+            return cost ? costs.get(dimension) : frequencies.get(dimension);
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Management interface of {@link HeavyHitters}. All methods return
+ * the heaviest keys of the current and the previous window, formatted
+ * as {@code key=weight}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public interface HeavyHittersMBean {
+
+    String[] getMostFrequentCommands();
+
+    /**
+     * Provides the commands which used the most wall clock time.
+     *
+     * @since 3.0
+     * @return the most expensive commands, weighted in milliseconds
+     */
+    String[] getMostExpensiveCommands();
+
+    String[] getMostFrequentSessions();
+
+    String[] getMostExpensiveSessions();
+
+    String[] getMostFrequentIdentifiers();
+
+    String[] getMostExpensiveIdentifiers();
+
+}
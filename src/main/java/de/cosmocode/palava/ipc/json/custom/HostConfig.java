@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Configuration keys for the per virtual host accounting of {@link VirtualHosts}.
+ * Every host may execute at most the configured number of commands concurrently,
+ * a value of zero or less means unlimited. Calls wait at most the configured timeout
+ * for a free slot, which defaults to zero, because waiting calls occupy worker threads too.
+ * Cpu time is only accounted if enabled, because measuring it is switched on vm wide.
+ * If a comma separated list of hosts is configured, only these hosts are tracked,
+ * otherwise hosts are evicted once they have been idle for the configured timeout.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class HostConfig {
+
+    public static final String PREFIX = "custom.host.";
+
+    public static final String PERMITS = PREFIX + "permits";
+    public static final String TIMEOUT = PREFIX + "timeout";
+    public static final String TIMEOUT_UNIT = PREFIX + "timeoutUnit";
+    public static final String MAXIMUM_HOSTS = PREFIX + "maximumHosts";
+    public static final String CPU_TIME = PREFIX + "cpuTime";
+    public static final String HOSTS = PREFIX + "hosts";
+    public static final String IDLE_TIMEOUT = PREFIX + "idleTimeout";
+    public static final String IDLE_TIMEOUT_UNIT = PREFIX + "idleTimeoutUnit";
+
+    private HostConfig() {
+    }
+}
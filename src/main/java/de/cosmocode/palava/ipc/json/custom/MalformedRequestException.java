@@ -0,0 +1,84 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import de.cosmocode.palava.ipc.protocol.ProtocolException;
+
+/**
+ * A {@link ProtocolException} signaling that a request lacks a required key or
+ * contains a value of the wrong type. Instances do not carry a stack trace, the
+ * {@link Kind} already tells where the request has been rejected, and skipping
+ * the stack walk keeps rejecting malformed requests cheap.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class MalformedRequestException extends ProtocolException {
+
+    private static final long serialVersionUID = 2817504937218426127L;
+
+    private final Kind kind;
+
+    MalformedRequestException(Kind kind) {
+        super(kind.getMessage());
+        this.kind = kind;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+    /**
+     * All kinds of malformation detected by the {@link CustomProtocol}.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    enum Kind {
+
+        MISSING_META("Missing " + CustomProtocol.META),
+
+        MISSING_COMMAND("Missing " + CustomProtocol.COMMAND),
+
+        MISSING_ARGUMENTS("Missing " + CustomProtocol.ARGUMENTS),
+
+        INVALID_META(CustomProtocol.META + " is not a map"),
+
+        INVALID_SESSION(CustomProtocol.SESSION + " is not a string"),
+
+        INVALID_IDENTIFIER(CustomProtocol.IDENTIFIER + " is not a string"),
+
+        INVALID_ARGUMENTS(CustomProtocol.ARGUMENTS + " is not a map");
+
+        private final String message;
+
+        private Kind(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Singleton;
+
+import de.cosmocode.palava.ipc.json.custom.MalformedRequestException.Kind;
+
+/**
+ * Counts malformed requests per {@link Kind} and throttles logging of them,
+ * so a broken client can't flood the log.
+ *
+ * @since 3.0
+ * @author agent
+ */
+@Singleton
+final class MalformedRequests {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MalformedRequests.class);
+
+    private static final long LOG_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final Map<Kind, AtomicLong> counters = Maps.newEnumMap(Kind.class);
+
+    private final AtomicLong nextWarning = new AtomicLong();
+
+    MalformedRequests() {
+        for (Kind kind : Kind.values()) {
+            counters.put(kind, new AtomicLong());
+        }
+    }
+
+    /**
+     * Rejects a malformed request of the given kind. Rejections are counted
+     * once they are {@link #log(MalformedRequestException) logged}, so synthetic
+     * requests which never reach the error handling aren't counted.
+     *
+     * @since 3.0
+     * @param kind the kind of malformation
+     * @return a new stackless exception for the given kind
+     */
+    public MalformedRequestException reject(Kind kind) {
+        return new MalformedRequestException(kind);
+    }
+
+    public long getCount(Kind kind) {
+        return counters.get(kind).get();
+    }
+
+    /**
+     * Counts the given rejection and logs it on warn level at most once per minute,
+     * including the counts of all kinds. All other occurrences are logged on debug level.
+     *
+     * @since 3.0
+     * @param e the exception
+     */
+    public void log(MalformedRequestException e) {
+        counters.get(e.getKind()).incrementAndGet();
+        final long now = System.currentTimeMillis();
+        final long next = nextWarning.get();
+        if (now >= next && nextWarning.compareAndSet(next, now + LOG_INTERVAL)) {
+            LOG.warn("Rejected malformed request: {} (total: {})", e.getMessage(), counters);
+        } else {
+            LOG.debug("Rejected malformed request: {}", e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * An append-only log of length-prefixed records which are written into
+ * memory-mapped segment files of a fixed size. A new segment is started
+ * once the current one is full, the oldest segments are deleted if more
+ * than the configured number exists, including the segments left behind by
+ * previous instances using the same directory and prefix. A record length of zero marks the
+ * end of a segment. Completed segments are flushed to disk by a background
+ * thread.
+ *
+ * <p>
+ *   Appending threads reserve their slot in the current segment by advancing its
+ *   position using compare-and-set and copy their record without holding a lock.
+ *   The length prefix is written after the record, so a reader stops at a slot
+ *   which is still being copied. Only starting a new segment is synchronized.
+ * </p>
+ *
+ * Instances are thread-safe and should be {@link #close() closed} after use.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class MappedLog {
+
+    static final String SUFFIX = ".bin";
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedLog.class);
+
+    private final File directory;
+
+    private final String prefix;
+
+    private final int segmentSize;
+
+    private final int maximumSegments;
+
+    private final LinkedList<File> segments = Lists.newLinkedList();
+
+    private int sequence;
+
+    private volatile Segment current;
+
+    private final ExecutorService flusher;
+
+    MappedLog(File directory, String prefix, int segmentSize, int maximumSegments) {
+        this.directory = Preconditions.checkNotNull(directory, "Directory");
+        this.prefix = Preconditions.checkNotNull(prefix, "Prefix");
+        Preconditions.checkArgument(segmentSize > 8, "SegmentSize must be greater than 8");
+        Preconditions.checkArgument(maximumSegments > 0, "MaximumSegments must be positive");
+        this.segmentSize = segmentSize;
+        this.maximumSegments = maximumSegments;
+        // segments of previous runs count against the limit as well
+        segments.addAll(Arrays.asList(list(directory, prefix)));
+        flusher = Executors.newSingleThreadExecutor(new DaemonThreadFactory("palava-custom-mapped-log-" + prefix));
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @since 3.0
+     * @param data the record content
+     * @param length the number of bytes of data to append
+     * @return false if the record is larger than a segment and has been dropped
+     * @throws IOException if starting a new segment failed
+     */
+    public boolean append(byte[] data, int length) throws IOException {
+        Preconditions.checkArgument(length > 0, "Length must be positive");
+        // length prefix of this record and the end marker
+        final int required = length + 8;
+        if (required > segmentSize) {
+            LOG.warn("Dropping record of {} bytes, segment size is {}", length, segmentSize);
+            return false;
+        }
+        while (true) {
+            final Segment segment = current;
+            if (segment != null) {
+                segment.writers.incrementAndGet();
+                try {
+                    // segments which have been rotated out may already be forced
+                    if (segment == current) {
+                        final int offset = segment.reserve(length);
+                        if (offset >= 0) {
+                            segment.write(offset, data, length);
+                            return true;
+                        }
+                    }
+                } finally {
+                    segment.writers.decrementAndGet();
+                }
+            }
+            rotate(segment);
+        }
+    }
+
+    private synchronized void rotate(final Segment full) throws IOException {
+        // another thread may have started a new segment already
+        if (current != full) return;
+
+        if (full != null) {
+            // forcing a whole segment takes long, don't block appending threads
+            try {
+                flusher.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        full.force();
+                    }
+
+                });
+            } catch (RejectedExecutionException e) {
+                // already closed
+                full.force();
+            }
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        final long now = System.currentTimeMillis();
+        File file;
+        do {
+            // another instance may have started a segment within the same millisecond
+            file = new File(directory, String.format("%s-%013d-%05d%s",
+                prefix, now, sequence++ % 100000, SUFFIX));
+        } while (file.exists());
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            current = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        } finally {
+            // the mapping stays valid after closing the file
+            raf.close();
+        }
+        LOG.debug("Started new segment {}", file);
+
+        segments.add(file);
+        while (segments.size() > maximumSegments) {
+            final File oldest = segments.removeFirst();
+            if (!oldest.delete()) {
+                LOG.warn("Unable to delete {}", oldest);
+            }
+        }
+    }
+
+    /**
+     * Flushes the current segment to disk. Records which are being copied
+     * concurrently may or may not be included.
+     *
+     * @since 3.0
+     */
+    public void flush() {
+        final Segment segment = current;
+        if (segment != null) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Flushes all segments to disk and stops the background thread.
+     *
+     * @since 3.0
+     * @throws InterruptedException if the current thread has been interrupted while
+     *         waiting for completed segments to be flushed
+     */
+    public void close() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        final Segment segment = current;
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Lists all segments of the given prefix in the given directory,
+     * ordered from oldest to newest.
+     *
+     * @since 3.0
+     * @param directory the directory
+     * @param prefix the segment prefix
+     * @return all segment files
+     */
+    static File[] list(File directory, final String prefix) {
+        final File[] files = directory.listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().startsWith(prefix + "-") &&
+                    file.getName().endsWith(SUFFIX);
+            }
+
+        });
+        if (files == null) return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Reads all records of the given segment.
+     *
+     * @since 3.0
+     * @param file the segment file
+     * @param visitor the visitor which will be called for every record
+     * @throws IOException if reading failed or the visitor failed
+     */
+    static void read(File file, Visitor visitor) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final ByteBuffer segment;
+        try {
+            final FileChannel channel = raf.getChannel();
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+
+        while (segment.remaining() >= 4) {
+            final int length = segment.getInt();
+            if (length <= 0 || length > segment.remaining()) break;
+
+            final ByteBuffer record = segment.slice();
+            record.limit(length);
+            visitor.visit(record);
+            segment.position(segment.position() + length);
+        }
+    }
+
+    /**
+     * A mapped segment file and the position of its next free slot.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    private static final class Segment {
+
+        private final MappedByteBuffer buffer;
+
+        private final AtomicLong position = new AtomicLong();
+
+        // threads which may still copy into this segment
+        private final AtomicInteger writers = new AtomicInteger();
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Reserves a slot for a record of the given length.
+         *
+         * @param length the record length
+         * @return the offset of the reserved slot or -1 if the record doesn't fit
+         */
+        int reserve(int length) {
+            final long required = length + 4;
+            while (true) {
+                final long offset = position.get();
+                // keep room for the end marker
+                if (offset + required + 4 > buffer.capacity()) return -1;
+                if (position.compareAndSet(offset, offset + required)) return (int) offset;
+            }
+        }
+
+        void write(int offset, byte[] data, int length) {
+            // a view of its own, the position of the shared buffer is never touched
+            final ByteBuffer slot = buffer.duplicate();
+            slot.position(offset + 4);
+            slot.put(data, 0, length);
+            slot.putInt(offset, length);
+        }
+
+        /**
+         * Waits for all threads copying into this segment and forces it to disk.
+         * Must only be called once no new slots are reserved.
+         */
+        void force() {
+            while (writers.get() > 0) {
+                Thread.yield();
+            }
+            buffer.force();
+        }
+
+    }
+
+    /**
+     * Callback for {@link MappedLog#read(File, Visitor)}.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    interface Visitor {
+
+        /**
+         * Visits a single record.
+         *
+         * @since 3.0
+         * @param record a buffer positioned at the start of the record and limited to its end
+         * @throws IOException if processing the record failed
+         */
+        void visit(ByteBuffer record) throws IOException;
+
+    }
+
+}
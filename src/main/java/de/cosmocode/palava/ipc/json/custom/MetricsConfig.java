@@ -0,0 +1,40 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Configuration keys for the export of the {@link ProtocolMetrics}. The http
+ * endpoint is only started if a port is configured and binds to the loopback
+ * interface unless a different address is configured.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class MetricsConfig {
+
+    public static final String PREFIX = "custom.metrics.";
+
+    public static final String FILE = PREFIX + "file";
+    public static final String INTERVAL = PREFIX + "interval";
+    public static final String INTERVAL_UNIT = PREFIX + "intervalUnit";
+    public static final String PORT = PREFIX + "port";
+    public static final String ADDRESS = PREFIX + "address";
+    public static final String JMX = PREFIX + "jmx";
+
+    private MetricsConfig() {
+    }
+}
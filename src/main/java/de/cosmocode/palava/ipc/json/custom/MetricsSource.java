@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.IOException;
+
+/**
+ * A component which contributes metrics to the snapshot of {@link ProtocolMetrics}.
+ * Sources add themselves using {@link ProtocolMetrics#addSource(MetricsSource)}
+ * when they are initialized, so optional components only show up in the
+ * snapshot if they are actually in use.
+ *
+ * @since 3.0
+ * @author agent
+ */
+interface MetricsSource {
+
+    /**
+     * Writes all metrics of this source.
+     *
+     * @since 3.0
+     * @param format the target format
+     * @throws IOException if writing failed
+     */
+    void writeTo(PrometheusFormat format) throws IOException;
+
+}
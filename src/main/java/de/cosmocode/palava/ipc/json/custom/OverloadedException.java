@@ -0,0 +1,40 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Signals that a call has been rejected, because no execution slot became
+ * available in time. These are thrown in bursts exactly when the server is
+ * busiest, so they skip the stack walk; the message names the exhausted lane.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class OverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 5183046790154271629L;
+
+    public OverloadedException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+}
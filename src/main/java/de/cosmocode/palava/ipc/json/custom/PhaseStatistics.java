@@ -0,0 +1,143 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * A {@link CustomPhaseTracer} which aggregates count, total, maximum and a
+ * power-of-two histogram per {@link CustomPhase}. The statistics are exported
+ * as summaries by the {@link ProtocolMetrics} while running and are logged on dispose.
+ *
+ * @since 3.0
+ * @author agent
+ */
+@Singleton
+public final class PhaseStatistics implements CustomPhaseTracer, MetricsSource, Initializable, Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PhaseStatistics.class);
+
+    private static final String METRIC = "palava_custom_phase_duration_seconds";
+
+    private final Map<CustomPhase, DurationHistogram> phases = Maps.newEnumMap(CustomPhase.class);
+
+    private final ProtocolMetrics metrics;
+
+    @Inject
+    PhaseStatistics(ProtocolMetrics metrics) {
+        this.metrics = Preconditions.checkNotNull(metrics, "Metrics");
+        for (CustomPhase phase : CustomPhase.values()) {
+            phases.put(phase, new DurationHistogram());
+        }
+    }
+
+    @Override
+    public void initialize() throws LifecycleException {
+        metrics.addSource(this);
+    }
+
+    @Override
+    public void phaseCompleted(CustomPhase phase, long duration) {
+        phases.get(phase).record(duration);
+    }
+
+    /**
+     * Returns the number of times the given phase has been completed.
+     *
+     * @since 3.0
+     * @param phase the phase
+     * @return the number of completions
+     */
+    public long getCount(CustomPhase phase) {
+        return phases.get(phase).getCount();
+    }
+
+    /**
+     * Returns the accumulated duration of the given phase.
+     *
+     * @since 3.0
+     * @param phase the phase
+     * @param unit the desired unit
+     * @return the total duration in the given unit
+     */
+    public long getTotal(CustomPhase phase, TimeUnit unit) {
+        return phases.get(phase).getTotal(unit);
+    }
+
+    /**
+     * Returns the longest observed duration of the given phase.
+     *
+     * @since 3.0
+     * @param phase the phase
+     * @param unit the desired unit
+     * @return the maximum duration in the given unit
+     */
+    public long getMax(CustomPhase phase, TimeUnit unit) {
+        return phases.get(phase).getMax(unit);
+    }
+
+    /**
+     * Estimates the given percentile of the durations of the given phase.
+     * The result is never lower than the real percentile and at most twice as high.
+     *
+     * @since 3.0
+     * @param phase the phase
+     * @param percentile the percentile, e.g. 0.99
+     * @param unit the desired unit
+     * @return the estimated percentile in the given unit
+     * @throws IllegalArgumentException if percentile is not in (0, 1]
+     */
+    public long getPercentile(CustomPhase phase, double percentile, TimeUnit unit) {
+        return phases.get(phase).getPercentile(percentile, unit);
+    }
+
+    @Override
+    public void writeTo(PrometheusFormat format) throws IOException {
+        format.header(METRIC, "summary", "Duration of the phases of processed requests.");
+        for (Map.Entry<CustomPhase, DurationHistogram> entry : phases.entrySet()) {
+            entry.getValue().writeTo(format, METRIC, "phase", entry.getKey().name().toLowerCase());
+        }
+    }
+
+    @Override
+    public void dispose() throws LifecycleException {
+        metrics.removeSource(this);
+        for (CustomPhase phase : CustomPhase.values()) {
+            LOG.info("{} [count: {}, total: {}ms, max: {}us, p50: {}us, p99: {}us]", new Object[] {
+                phase, getCount(phase), getTotal(phase, TimeUnit.MILLISECONDS),
+                getMax(phase, TimeUnit.MICROSECONDS),
+                getPercentile(phase, 0.5, TimeUnit.MICROSECONDS),
+                getPercentile(phase, 0.99, TimeUnit.MICROSECONDS)
+            });
+        }
+    }
+
+}
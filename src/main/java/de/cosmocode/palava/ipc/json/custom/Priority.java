@@ -0,0 +1,43 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Priority classes of commands. Every class is executed in its own
+ * lane with separately bounded concurrency, see {@link PriorityConfig}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public enum Priority {
+
+    /**
+     * Commands a user is actively waiting for, e.g. while a page is rendered.
+     */
+    INTERACTIVE,
+
+    /**
+     * The default for all commands which do not declare a priority.
+     */
+    NORMAL,
+
+    /**
+     * Long running commands like exports and batch jobs.
+     */
+    BATCH;
+
+}
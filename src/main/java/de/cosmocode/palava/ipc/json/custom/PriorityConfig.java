@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Configuration keys for the priority lanes. Every {@link Priority} has its
+ * own maximum number of concurrently executing commands, a value of zero or
+ * less means unlimited. Calls wait at most the configured timeout for a free slot
+ * while blocking their worker thread. The timeout defaults to zero, which rejects
+ * calls immediately if their lane is full.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class PriorityConfig {
+
+    public static final String PREFIX = "custom.priority.";
+
+    public static final String INTERACTIVE_PERMITS = PREFIX + "interactive.permits";
+    public static final String NORMAL_PERMITS = PREFIX + "normal.permits";
+    public static final String BATCH_PERMITS = PREFIX + "batch.permits";
+    public static final String TIMEOUT = PREFIX + "timeout";
+    public static final String TIMEOUT_UNIT = PREFIX + "timeoutUnit";
+
+    /**
+     * The meta key the front-end may use to send a {@link Priority}.
+     */
+    public static final String META_KEY = "PRIORITY";
+
+    private PriorityConfig() {
+    }
+}
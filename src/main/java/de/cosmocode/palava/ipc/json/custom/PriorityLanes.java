@@ -0,0 +1,189 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.IpcCommand;
+
+/**
+ * Classifies calls into {@link Priority} lanes and bounds the number of concurrent
+ * executions per lane using a {@link Bulkhead}. Lanes throttle on the calling
+ * worker thread, because the call scope is bound to it, so a lane with a small
+ * limit (e.g. {@link Priority#BATCH}) can't occupy all workers and interactive
+ * calls don't queue up behind batch calls. All lanes are unlimited by default.
+ * A call which finds its lane full fails immediately with an {@link OverloadedException}
+ * unless a {@link PriorityConfig#TIMEOUT} is configured, because a waiting call
+ * blocks its worker thread for the whole time.
+ *
+ * @since 3.0
+ * @author agent
+ */
+@Singleton
+final class PriorityLanes implements Initializable, Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PriorityLanes.class);
+
+    private static final int MAXIMUM_UNKNOWN = 1024;
+
+    private final Map<Priority, Integer> permits = Maps.newEnumMap(Priority.class);
+
+    private final Map<Priority, Bulkhead> lanes = Maps.newEnumMap(Priority.class);
+
+    // only contains names of existing command classes, hence bounded
+    private final ConcurrentMap<String, Priority> priorities = new MapMaker().makeMap();
+
+    // names which are no command class, sent by clients and therefore bounded explicitly
+    private final ConcurrentMap<String, Boolean> unknown = new MapMaker().makeMap();
+
+    private final AtomicInteger unknownSize = new AtomicInteger();
+
+    private long timeout;
+
+    private TimeUnit timeoutUnit = TimeUnit.SECONDS;
+
+    private boolean enabled;
+
+    @Inject(optional = true)
+    void setInteractivePermits(@Named(PriorityConfig.INTERACTIVE_PERMITS) int interactivePermits) {
+        permits.put(Priority.INTERACTIVE, interactivePermits);
+    }
+
+    @Inject(optional = true)
+    void setNormalPermits(@Named(PriorityConfig.NORMAL_PERMITS) int normalPermits) {
+        permits.put(Priority.NORMAL, normalPermits);
+    }
+
+    @Inject(optional = true)
+    void setBatchPermits(@Named(PriorityConfig.BATCH_PERMITS) int batchPermits) {
+        permits.put(Priority.BATCH, batchPermits);
+    }
+
+    @Inject(optional = true)
+    void setTimeout(@Named(PriorityConfig.TIMEOUT) long timeout) {
+        Preconditions.checkArgument(timeout >= 0, "Timeout must not be negative");
+        this.timeout = timeout;
+    }
+
+    @Inject(optional = true)
+    void setTimeoutUnit(@Named(PriorityConfig.TIMEOUT_UNIT) TimeUnit timeoutUnit) {
+        this.timeoutUnit = Preconditions.checkNotNull(timeoutUnit, "TimeoutUnit");
+    }
+
+    @Override
+    public void initialize() throws LifecycleException {
+        for (Priority priority : Priority.values()) {
+            final Integer value = permits.get(priority);
+            final int limit = value == null ? 0 : value.intValue();
+            lanes.put(priority, new Bulkhead(priority.name().toLowerCase() + " lane", limit));
+            enabled |= limit > 0;
+        }
+    }
+
+    /**
+     * Acquires a slot in the lane of the given command.
+     *
+     * @since 3.0
+     * @param command the name of the command
+     * @param meta the meta information of the call
+     * @return the acquired lane, which has to be released after execution
+     * @throws OverloadedException if no slot became available in time
+     */
+    public Bulkhead acquire(String command, Map<?, ?> meta) {
+        final Bulkhead lane = lanes.get(enabled ? classify(command, meta) : Priority.NORMAL);
+        lane.acquire(timeout, timeoutUnit);
+        return lane;
+    }
+
+    private Priority classify(String command, Map<?, ?> meta) {
+        final Object requested = meta.get(PriorityConfig.META_KEY);
+        if (requested != null) {
+            try {
+                return Priority.valueOf(requested.toString().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LOG.trace("Ignoring unknown priority {}", requested);
+            }
+        }
+
+        final Priority cached = priorities.get(command);
+        if (cached != null) return cached;
+        if (unknown.containsKey(command)) return Priority.NORMAL;
+
+        final Class<?> type;
+        try {
+            type = Class.forName(command, false, Thread.currentThread().getContextClassLoader());
+        } catch (ClassNotFoundException e) {
+            remember(command);
+            return Priority.NORMAL;
+        }
+
+        if (!IpcCommand.class.isAssignableFrom(type)) {
+            priorities.put(command, Priority.NORMAL);
+            return Priority.NORMAL;
+        }
+
+        final CommandPriority annotation = type.getAnnotation(CommandPriority.class);
+        final Priority priority = annotation == null ? Priority.NORMAL : annotation.value();
+        priorities.put(command, priority);
+        return priority;
+    }
+
+    private void remember(String command) {
+        if (unknownSize.incrementAndGet() > MAXIMUM_UNKNOWN) {
+            // start over instead of growing, repeated misses are cached again soon enough
+            unknown.clear();
+            unknownSize.set(1);
+        }
+        unknown.put(command, Boolean.TRUE);
+    }
+
+    /**
+     * Provides the lane of the given priority, including its statistics.
+     *
+     * @since 3.0
+     * @param priority the priority
+     * @return the corresponding lane
+     */
+    public Bulkhead getLane(Priority priority) {
+        return lanes.get(priority);
+    }
+
+    @Override
+    public void dispose() throws LifecycleException {
+        if (!enabled) return;
+        for (Bulkhead lane : lanes.values()) {
+            LOG.info("{}", lane);
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.IOException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Writes samples using the prometheus text exposition format.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class PrometheusFormat {
+
+    private final Appendable output;
+
+    PrometheusFormat(Appendable output) {
+        this.output = Preconditions.checkNotNull(output, "Output");
+    }
+
+    /**
+     * Writes the help and type lines of a metric.
+     *
+     * @since 3.0
+     * @param name the metric name
+     * @param type the metric type, e.g. counter, gauge or summary
+     * @param help the description
+     * @throws IOException if writing failed
+     */
+    public void header(String name, String type, String help) throws IOException {
+        output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        output.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    public void sample(String name, long sample) throws IOException {
+        sample(name, null, null, sample);
+    }
+
+    /**
+     * Writes a single sample with at most one label.
+     *
+     * @since 3.0
+     * @param name the metric name
+     * @param label the label name, may be null
+     * @param value the label value, will be escaped
+     * @param sample the sample
+     * @throws IOException if writing failed
+     */
+    public void sample(String name, String label, String value, long sample) throws IOException {
+        labels(name, label, value, null, null);
+        output.append(' ').append(Long.toString(sample)).append('\n');
+    }
+
+    public void sample(String name, String label, String value, double sample) throws IOException {
+        labels(name, label, value, null, null);
+        output.append(' ').append(Double.toString(sample)).append('\n');
+    }
+
+    /**
+     * Writes a single quantile of a summary.
+     *
+     * @since 3.0
+     * @param name the metric name
+     * @param label the label name, may be null
+     * @param value the label value, will be escaped
+     * @param quantile the quantile, e.g. 0.99
+     * @param sample the sample
+     * @throws IOException if writing failed
+     */
+    public void quantile(String name, String label, String value, String quantile, double sample)
+        throws IOException {
+        labels(name, label, value, "quantile", quantile);
+        output.append(' ').append(Double.toString(sample)).append('\n');
+    }
+
+    private void labels(String name, String label, String value, String second, String secondValue)
+        throws IOException {
+        output.append(name);
+        if (label == null && second == null) return;
+        output.append('{');
+        if (label != null) {
+            output.append(label).append("=\"").append(escape(value)).append('"');
+        }
+        if (second != null) {
+            if (label != null) {
+                output.append(',');
+            }
+            output.append(second).append("=\"").append(escape(secondValue)).append('"');
+        }
+        output.append('}');
+    }
+
+    private String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
@@ -0,0 +1,523 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.json.custom.MalformedRequestException.Kind;
+
+/**
+ * Lock-free counters and timers of the custom protocol layer: processed requests
+ * by protocol version, call latency, session reuses and lookups, exceptions by
+ * class hierarchy, rate limited, not modified and malformed requests, slow calls
+ * and slow connections, string pool and priority lane statistics. Further
+ * components contribute their metrics as {@link MetricsSource}s.
+ *
+ * <p>
+ *   Registered as {@link ProtocolMetricsMBean} (see {@link MetricsConfig#JMX}) and
+ *   exported using the prometheus text format, either into a file (see
+ *   {@link MetricsConfig#FILE}) or by an embedded http server on {@link MetricsConfig#PORT}
+ *   under {@code /metrics}, bound to {@link MetricsConfig#ADDRESS} (loopback by default).
+ * </p>
+ *
+ * @since 3.0
+ * @author agent
+ */
+@Singleton
+public final class ProtocolMetrics implements ProtocolMetricsMBean, Initializable, Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProtocolMetrics.class);
+
+    private static final String OBJECT_NAME = "de.cosmocode.palava.ipc.json.custom:type=ProtocolMetrics";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // bounds the number of distinct label values, which may be influenced by clients
+    private static final int MAXIMUM_LABELS = 256;
+
+    private static final String OTHER = "other";
+
+    /**
+     * The reasons why {@link CustomProtocol} asks the session provider.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    public static enum SessionLookup {
+
+        NOT_ATTACHED,
+
+        SESSION_CHANGED,
+
+        IDENTIFIER_CHANGED,
+
+        EXPIRED;
+
+    }
+
+    private final MalformedRequests malformedRequests;
+
+    private final StringPool pool;
+
+    private final PriorityLanes lanes;
+
+    private final List<MetricsSource> sources = new CopyOnWriteArrayList<MetricsSource>();
+
+    private final ConcurrentMap<String, AtomicLong> versions = new MapMaker().makeMap();
+
+    private final ConcurrentMap<String, AtomicLong> exceptions = new MapMaker().makeMap();
+
+    private final Map<SessionLookup, AtomicLong> lookups = Maps.newEnumMap(SessionLookup.class);
+
+    private final DurationHistogram latency = new DurationHistogram();
+
+    private final AtomicLong sessionReuses = new AtomicLong();
+    private final AtomicLong exceptionsTotal = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong slowCalls = new AtomicLong();
+    private final AtomicLong slowConnections = new AtomicLong();
+
+    private File file;
+
+    private long interval = 1;
+
+    private TimeUnit intervalUnit = TimeUnit.MINUTES;
+
+    private int port;
+
+    private String address = "127.0.0.1";
+
+    private boolean jmx = true;
+
+    private ObjectName objectName;
+
+    private ScheduledExecutorService scheduler;
+
+    private HttpServer server;
+
+    @Inject
+    ProtocolMetrics(MalformedRequests malformedRequests, StringPool pool, PriorityLanes lanes) {
+        this.malformedRequests = Preconditions.checkNotNull(malformedRequests, "MalformedRequests");
+        this.pool = Preconditions.checkNotNull(pool, "Pool");
+        this.lanes = Preconditions.checkNotNull(lanes, "Lanes");
+        for (SessionLookup lookup : SessionLookup.values()) {
+            lookups.put(lookup, new AtomicLong());
+        }
+    }
+
+    @Inject(optional = true)
+    void setFile(@Named(MetricsConfig.FILE) File file) {
+        this.file = Preconditions.checkNotNull(file, "File");
+    }
+
+    @Inject(optional = true)
+    void setInterval(@Named(MetricsConfig.INTERVAL) long interval) {
+        Preconditions.checkArgument(interval > 0, "Interval must be positive");
+        this.interval = interval;
+    }
+
+    @Inject(optional = true)
+    void setIntervalUnit(@Named(MetricsConfig.INTERVAL_UNIT) TimeUnit intervalUnit) {
+        this.intervalUnit = Preconditions.checkNotNull(intervalUnit, "IntervalUnit");
+    }
+
+    @Inject(optional = true)
+    void setPort(@Named(MetricsConfig.PORT) int port) {
+        this.port = port;
+    }
+
+    @Inject(optional = true)
+    void setAddress(@Named(MetricsConfig.ADDRESS) String address) {
+        this.address = Preconditions.checkNotNull(address, "Address");
+    }
+
+    @Inject(optional = true)
+    void setJmx(@Named(MetricsConfig.JMX) boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    @Override
+    public void initialize() throws LifecycleException {
+        if (jmx) {
+            registerMBean();
+        }
+
+        if (file != null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("palava-custom-metrics"));
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    writeFile();
+                }
+
+            }, interval, interval, intervalUnit);
+        }
+
+        if (port > 0) {
+            startServer();
+        }
+    }
+
+    private void registerMBean() throws LifecycleException {
+        try {
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (InstanceAlreadyExistsException e) {
+            LOG.warn("{} is already registered, e.g. by another injector, skipping registration", OBJECT_NAME);
+        } catch (JMException e) {
+            throw new LifecycleException(e);
+        }
+    }
+
+    private void startServer() throws LifecycleException {
+        try {
+            server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        } catch (IOException e) {
+            throw new LifecycleException(e);
+        }
+        server.createContext("/metrics", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final byte[] body = getSnapshot().getBytes(UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream stream = exchange.getResponseBody();
+                try {
+                    stream.write(body);
+                } finally {
+                    stream.close();
+                }
+            }
+
+        });
+        server.start();
+        LOG.info("Serving protocol metrics on {}:{}", address, port);
+    }
+
+    /**
+     * Adds the given source to the snapshot.
+     *
+     * @since 3.0
+     * @param source the source
+     */
+    public void addSource(MetricsSource source) {
+        sources.add(Preconditions.checkNotNull(source, "Source"));
+    }
+
+    public void removeSource(MetricsSource source) {
+        sources.remove(source);
+    }
+
+    /**
+     * Counts a request processed by the {@link CustomProtocol}.
+     *
+     * @since 3.0
+     * @param version the requested protocol version, may be null
+     */
+    public void request(Object version) {
+        increment(versions, version == null ? "none" : version.toString());
+    }
+
+    /**
+     * Records the duration of a completed request, from receiving it
+     * until all post call listeners have been notified.
+     *
+     * @since 3.0
+     * @param duration the duration in nanoseconds
+     */
+    public void completed(long duration) {
+        latency.record(duration);
+    }
+
+    /**
+     * Counts a request which re-used the session attached to its connection.
+     *
+     * @since 3.0
+     */
+    public void sessionReused() {
+        sessionReuses.incrementAndGet();
+    }
+
+    /**
+     * Counts a request which required a session provider lookup.
+     *
+     * @since 3.0
+     * @param reason the reason for the lookup
+     */
+    public void sessionLookup(SessionLookup reason) {
+        lookups.get(reason).incrementAndGet();
+    }
+
+    /**
+     * Counts an encoded exception once for every class in its hierarchy, using
+     * the same names the {@link ThrowableEncoder} reports as super names.
+     *
+     * @since 3.0
+     * @param throwable the encoded throwable
+     */
+    public void exception(Throwable throwable) {
+        exceptionsTotal.incrementAndGet();
+        Class<?> type = throwable.getClass();
+        while (type != null && type != Exception.class) {
+            increment(exceptions, type.getName());
+            type = type.getSuperclass();
+        }
+    }
+
+    public void rateLimited() {
+        rateLimited.incrementAndGet();
+    }
+
+    public void notModified() {
+        notModified.incrementAndGet();
+    }
+
+    public void slowCall() {
+        slowCalls.incrementAndGet();
+    }
+
+    public void slowConnection() {
+        slowConnections.incrementAndGet();
+    }
+
+    private void increment(ConcurrentMap<String, AtomicLong> counters, String key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            final String bounded = counters.size() < MAXIMUM_LABELS ? key : OTHER;
+            final AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(bounded, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    private long sum(Map<?, AtomicLong> counters) {
+        long sum = 0L;
+        for (AtomicLong counter : counters.values()) {
+            sum += counter.get();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getRequests() {
+        return sum(versions);
+    }
+
+    @Override
+    public long getSessionReuses() {
+        return sessionReuses.get();
+    }
+
+    @Override
+    public long getSessionLookups() {
+        return sum(lookups);
+    }
+
+    @Override
+    public long getExceptions() {
+        return exceptionsTotal.get();
+    }
+
+    @Override
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    @Override
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    @Override
+    public long getSlowCalls() {
+        return slowCalls.get();
+    }
+
+    @Override
+    public long getSlowConnections() {
+        return slowConnections.get();
+    }
+
+    @Override
+    public long getLatencyPercentile99() {
+        return latency.getPercentile(0.99, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public String getSnapshot() {
+        final StringBuilder builder = new StringBuilder(4096);
+        try {
+            writeTo(builder);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes all metrics, including those of all added sources, using the prometheus text format.
+     *
+     * @since 3.0
+     * @param output the target
+     * @throws IOException if writing failed
+     */
+    public void writeTo(Appendable output) throws IOException {
+        final PrometheusFormat format = new PrometheusFormat(output);
+
+        format.header("palava_custom_requests_total", "counter", "Processed requests by protocol version.");
+        for (Map.Entry<String, AtomicLong> entry : versions.entrySet()) {
+            format.sample("palava_custom_requests_total", "version", entry.getKey(), entry.getValue().get());
+        }
+
+        format.header("palava_custom_request_duration_seconds", "summary", "Duration of processed requests.");
+        latency.writeTo(format, "palava_custom_request_duration_seconds", null, null);
+
+        format.header("palava_custom_session_reuses_total", "counter", "Requests re-using the attached session.");
+        format.sample("palava_custom_session_reuses_total", sessionReuses.get());
+
+        format.header("palava_custom_session_lookups_total", "counter", "Session provider lookups by reason.");
+        for (Map.Entry<SessionLookup, AtomicLong> entry : lookups.entrySet()) {
+            format.sample("palava_custom_session_lookups_total", "reason",
+                entry.getKey().name().toLowerCase(), entry.getValue().get());
+        }
+
+        format.header("palava_custom_exceptions_total", "counter", "Encoded exceptions by class hierarchy.");
+        for (Map.Entry<String, AtomicLong> entry : exceptions.entrySet()) {
+            format.sample("palava_custom_exceptions_total", "class", entry.getKey(), entry.getValue().get());
+        }
+
+        format.header("palava_custom_malformed_requests_total", "counter", "Malformed requests by kind.");
+        for (Kind kind : Kind.values()) {
+            format.sample("palava_custom_malformed_requests_total", "kind",
+                kind.name().toLowerCase(), malformedRequests.getCount(kind));
+        }
+
+        format.header("palava_custom_rate_limited_total", "counter", "Requests rejected by the rate limiter.");
+        format.sample("palava_custom_rate_limited_total", rateLimited.get());
+
+        format.header("palava_custom_not_modified_total", "counter", "Results replaced by not modified.");
+        format.sample("palava_custom_not_modified_total", notModified.get());
+
+        format.header("palava_custom_slow_calls_total", "counter", "Calls exceeding the call threshold.");
+        format.sample("palava_custom_slow_calls_total", slowCalls.get());
+
+        format.header("palava_custom_slow_connections_total", "counter",
+            "Connections exceeding the connection threshold.");
+        format.sample("palava_custom_slow_connections_total", slowConnections.get());
+
+        format.header("palava_custom_string_pool_hits_total", "counter", "String pool hits.");
+        format.sample("palava_custom_string_pool_hits_total", pool.getHits());
+        format.header("palava_custom_string_pool_misses_total", "counter", "String pool misses.");
+        format.sample("palava_custom_string_pool_misses_total", pool.getMisses());
+
+        format.header("palava_custom_lane_waiting", "gauge", "Calls waiting for a slot by priority lane.");
+        for (Priority priority : Priority.values()) {
+            final Bulkhead lane = lanes.getLane(priority);
+            if (lane == null) continue;
+            format.sample("palava_custom_lane_waiting", "lane", priority.name().toLowerCase(), lane.getWaiting());
+        }
+        format.header("palava_custom_lane_wait_seconds_total", "counter", "Time spent waiting by priority lane.");
+        for (Priority priority : Priority.values()) {
+            final Bulkhead lane = lanes.getLane(priority);
+            if (lane == null) continue;
+            format.sample("palava_custom_lane_wait_seconds_total", "lane", priority.name().toLowerCase(),
+                lane.getWaitTime(TimeUnit.MICROSECONDS) / 1e6);
+        }
+
+        for (MetricsSource source : sources) {
+            source.writeTo(format);
+        }
+    }
+
+    private void writeFile() {
+        final File temporary = new File(file.getPath() + ".tmp");
+        try {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), UTF_8);
+            try {
+                writeTo(writer);
+            } finally {
+                writer.close();
+            }
+            if (!temporary.renameTo(file)) {
+                LOG.warn("Unable to move {} to {}", temporary, file);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to write metrics to " + file, e);
+        }
+    }
+
+    @Override
+    public void dispose() throws LifecycleException {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOG.warn("Unable to unregister " + objectName, e);
+            }
+        }
+    }
+
+}
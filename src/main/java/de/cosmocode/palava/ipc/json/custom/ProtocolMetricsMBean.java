@@ -0,0 +1,59 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Management interface of {@link ProtocolMetrics}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public interface ProtocolMetricsMBean {
+
+    long getRequests();
+
+    long getSessionReuses();
+
+    long getSessionLookups();
+
+    long getExceptions();
+
+    long getRateLimited();
+
+    long getNotModified();
+
+    long getSlowCalls();
+
+    long getSlowConnections();
+
+    /**
+     * Estimates the 99th percentile of the request duration.
+     *
+     * @since 3.0
+     * @return the 99th percentile in microseconds
+     */
+    long getLatencyPercentile99();
+
+    /**
+     * Renders all metrics using the prometheus text format.
+     *
+     * @since 3.0
+     * @return the current snapshot
+     */
+    String getSnapshot();
+
+}
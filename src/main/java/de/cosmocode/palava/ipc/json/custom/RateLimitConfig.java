@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Configuration keys for the {@link RateLimiter}. Rates are given in calls per second,
+ * a rate of zero or less disables the corresponding limit.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class RateLimitConfig {
+
+    public static final String PREFIX = "custom.rateLimit.";
+
+    public static final String CLIENT_RATE = PREFIX + "client.rate";
+    public static final String CLIENT_BURST = PREFIX + "client.burst";
+    public static final String SESSION_RATE = PREFIX + "session.rate";
+    public static final String SESSION_BURST = PREFIX + "session.burst";
+    public static final String IDLE_TIMEOUT = PREFIX + "idleTimeout";
+    public static final String IDLE_TIMEOUT_UNIT = PREFIX + "idleTimeoutUnit";
+    public static final String MAXIMUM_CLIENTS = PREFIX + "maximumClients";
+    public static final String MAXIMUM_SESSIONS = PREFIX + "maximumSessions";
+
+    private RateLimitConfig() {
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Signals that a client or session exceeded its configured call rate. A client
+ * hammering the server raises one of these per rejected call, which is why the
+ * stack trace is omitted: it would always point into the {@link RateLimiter}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class RateLimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = -6410785612547215410L;
+
+    public RateLimitExceededException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+}
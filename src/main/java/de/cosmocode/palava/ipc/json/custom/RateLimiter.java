@@ -0,0 +1,231 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Enforces per client and per session call rates using {@link TokenBucket}s.
+ * Buckets are kept in concurrent maps and discarded by a background thread after
+ * being idle for the configured time. Both limits are disabled by default.
+ *
+ * <p>
+ *   Session ids are checked before the session is resolved, so clients may send
+ *   arbitrary ones. Both maps are therefore bounded (see {@link RateLimitConfig#MAXIMUM_CLIENTS}
+ *   and {@link RateLimitConfig#MAXIMUM_SESSIONS}). Keys which arrive while a map is full
+ *   are not limited by it, which is why a client rotating session ids is still
+ *   subject to the client limit.
+ * </p>
+ *
+ * @since 3.0
+ * @author agent
+ */
+@Singleton
+final class RateLimiter implements Initializable, Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimiter.class);
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentMap<String, TokenBucket> clients = new MapMaker().makeMap();
+    private final ConcurrentMap<String, TokenBucket> sessions = new MapMaker().makeMap();
+
+    private final AtomicInteger clientCount = new AtomicInteger();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    private final AtomicLong untracked = new AtomicLong();
+
+    private int maximumClients = 65536;
+    private int maximumSessions = 65536;
+
+    private long clientInterval;
+    private int clientBurst = 1;
+
+    private long sessionInterval;
+    private int sessionBurst = 1;
+
+    private long idleTimeout = 5;
+    private TimeUnit idleTimeoutUnit = TimeUnit.MINUTES;
+
+    private ScheduledExecutorService scheduler;
+
+    @Inject(optional = true)
+    void setClientRate(@Named(RateLimitConfig.CLIENT_RATE) double rate) {
+        this.clientInterval = toInterval(rate);
+    }
+
+    @Inject(optional = true)
+    void setClientBurst(@Named(RateLimitConfig.CLIENT_BURST) int burst) {
+        Preconditions.checkArgument(burst > 0, "Burst must be positive");
+        this.clientBurst = burst;
+    }
+
+    @Inject(optional = true)
+    void setSessionRate(@Named(RateLimitConfig.SESSION_RATE) double rate) {
+        this.sessionInterval = toInterval(rate);
+    }
+
+    @Inject(optional = true)
+    void setSessionBurst(@Named(RateLimitConfig.SESSION_BURST) int burst) {
+        Preconditions.checkArgument(burst > 0, "Burst must be positive");
+        this.sessionBurst = burst;
+    }
+
+    @Inject(optional = true)
+    void setIdleTimeout(@Named(RateLimitConfig.IDLE_TIMEOUT) long idleTimeout) {
+        Preconditions.checkArgument(idleTimeout > 0, "IdleTimeout must be positive");
+        this.idleTimeout = idleTimeout;
+    }
+
+    @Inject(optional = true)
+    void setIdleTimeoutUnit(@Named(RateLimitConfig.IDLE_TIMEOUT_UNIT) TimeUnit idleTimeoutUnit) {
+        this.idleTimeoutUnit = Preconditions.checkNotNull(idleTimeoutUnit, "IdleTimeoutUnit");
+    }
+
+    @Inject(optional = true)
+    void setMaximumClients(@Named(RateLimitConfig.MAXIMUM_CLIENTS) int maximumClients) {
+        Preconditions.checkArgument(maximumClients > 0, "MaximumClients must be positive");
+        this.maximumClients = maximumClients;
+    }
+
+    @Inject(optional = true)
+    void setMaximumSessions(@Named(RateLimitConfig.MAXIMUM_SESSIONS) int maximumSessions) {
+        Preconditions.checkArgument(maximumSessions > 0, "MaximumSessions must be positive");
+        this.maximumSessions = maximumSessions;
+    }
+
+    private long toInterval(double rate) {
+        return rate > 0 ? Math.max(1L, (long) (SECOND / rate)) : 0L;
+    }
+
+    @Override
+    public void initialize() throws LifecycleException {
+        if (clientInterval == 0 && sessionInterval == 0) return;
+
+        final long idle = idleTimeoutUnit.toNanos(idleTimeout);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("palava-custom-rate-limit"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                sweep(System.nanoTime(), idle);
+            }
+
+        }, idle / 2, idle / 2, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Checks whether the given client and session may issue another call.
+     *
+     * @since 3.0
+     * @param identifier the client identifier, may be null
+     * @param sessionId the session id, may be null
+     * @throws RateLimitExceededException if one of the limits has been exceeded
+     */
+    public void acquire(String identifier, String sessionId) {
+        if (clientInterval == 0 && sessionInterval == 0) return;
+
+        final long now = System.nanoTime();
+
+        if (clientInterval > 0 && identifier != null &&
+            !tryAcquire(clients, clientCount, maximumClients, identifier, now, clientInterval, clientBurst)) {
+            LOG.debug("Client {} exceeded its rate limit", identifier);
+            throw new RateLimitExceededException("Rate limit exceeded for client " + identifier);
+        }
+
+        if (sessionInterval > 0 && sessionId != null &&
+            !tryAcquire(sessions, sessionCount, maximumSessions, sessionId, now, sessionInterval, sessionBurst)) {
+            LOG.debug("Session {} exceeded its rate limit", sessionId);
+            throw new RateLimitExceededException("Rate limit exceeded for session " + sessionId);
+        }
+    }
+
+    private boolean tryAcquire(ConcurrentMap<String, TokenBucket> buckets, AtomicInteger count, int maximum,
+        String key, long now, long interval, int burst) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (count.get() >= maximum) {
+                // full, e.g. because of a client sending random keys
+                untracked.incrementAndGet();
+                return true;
+            }
+            final TokenBucket created = new TokenBucket(now);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                count.incrementAndGet();
+                bucket = created;
+            }
+        }
+        return bucket.tryAcquire(now, interval, burst);
+    }
+
+    /**
+     * Returns the number of calls which have not been limited because
+     * the corresponding map was full.
+     *
+     * @since 3.0
+     * @return the number of untracked calls
+     */
+    public long getUntracked() {
+        return untracked.get();
+    }
+
+    private void sweep(long now, long idle) {
+        final int removed = sweep(clients, clientCount, now, idle) + sweep(sessions, sessionCount, now, idle);
+        LOG.trace("Discarded {} idle rate limit buckets", removed);
+    }
+
+    private int sweep(ConcurrentMap<String, TokenBucket> buckets, AtomicInteger count, long now, long idle) {
+        int removed = 0;
+        final Iterator<TokenBucket> iterator = buckets.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isIdle(now, idle)) {
+                iterator.remove();
+                count.decrementAndGet();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void dispose() throws LifecycleException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,357 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Provider;
+
+import de.cosmocode.palava.ipc.protocol.DetachedConnection;
+import de.cosmocode.palava.ipc.protocol.ProtocolException;
+
+/**
+ * Replays requests captured by the {@link CustomProtocol} (see {@link CaptureConfig})
+ * through a {@link CustomProtocol} instance, which may use a stub or a real
+ * command executor. Requests are issued according to their captured arrival times,
+ * scaled by the configured speed, using the configured number of threads.
+ * Requests are never issued by the reading thread, so a saturated target doesn't
+ * slow down the arrivals; requests queue up instead, at most {@value #QUEUED_PER_THREAD}
+ * per thread. Once the queue is full, the reading thread blocks until a request
+ * completes. The time requests wait for a free slot and thread is reported as lag
+ * in the {@link Summary}.
+ *
+ * <p>
+ *   Requests are processed as synthetic requests, the same way the {@link Warmup}
+ *   issues them. They bypass the capture and the rate limiter and are kept out of
+ *   the {@link ProtocolMetrics}, the access log and the {@link HeavyHitters}, so
+ *   replaying against a running server doesn't distort its statistics.
+ * </p>
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class ReplayDriver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplayDriver.class);
+
+    private static final int QUEUED_PER_THREAD = 16;
+
+    private final CustomProtocol protocol;
+
+    private final Provider<? extends DetachedConnection> connections;
+
+    private double speed = 1d;
+
+    private int concurrency = 1;
+
+    /**
+     * Creates a new driver.
+     *
+     * @param protocol the protocol to feed
+     * @param connections provides a connection for every replayed request
+     */
+    public ReplayDriver(CustomProtocol protocol, Provider<? extends DetachedConnection> connections) {
+        this.protocol = Preconditions.checkNotNull(protocol, "Protocol");
+        this.connections = Preconditions.checkNotNull(connections, "Connections");
+    }
+
+    /**
+     * Sets the replay speed relative to the captured traffic. A speed of 2 replays
+     * twice as fast, zero disables pacing completely. Defaults to 1.
+     *
+     * @since 3.0
+     * @param speed the speed factor
+     */
+    public void setSpeed(double speed) {
+        Preconditions.checkArgument(speed >= 0, "Speed must not be negative");
+        this.speed = speed;
+    }
+
+    /**
+     * Sets the number of threads issuing requests. Defaults to 1.
+     *
+     * @since 3.0
+     * @param concurrency the number of threads
+     */
+    public void setConcurrency(int concurrency) {
+        Preconditions.checkArgument(concurrency > 0, "Concurrency must be positive");
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Replays all captured segments in the given directory.
+     *
+     * @since 3.0
+     * @param directory the capture directory
+     * @return a summary of the replay
+     * @throws IOException if reading the captured requests failed
+     * @throws InterruptedException if the current thread has been interrupted
+     */
+    public Summary replay(File directory) throws IOException, InterruptedException {
+        return replay(MappedLog.list(directory, RequestRecorder.PREFIX));
+    }
+
+    /**
+     * Replays the given captured segments in order.
+     *
+     * @since 3.0
+     * @param segments the segment files
+     * @return a summary of the replay
+     * @throws IOException if reading the captured requests failed
+     * @throws InterruptedException if the current thread has been interrupted
+     */
+    public Summary replay(File... segments) throws IOException, InterruptedException {
+        final Summary summary = new Summary();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency,
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+
+        final Semaphore slots = new Semaphore(concurrency * QUEUED_PER_THREAD);
+        final Pacer pacer = new Pacer(executor, slots, summary);
+        try {
+            for (File segment : segments) {
+                LOG.info("Replaying {}", segment);
+                MappedLog.read(segment, pacer);
+            }
+        } catch (InterruptedIOException e) {
+            executor.shutdownNow();
+            throw new InterruptedException(e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        LOG.info("{}", summary);
+        return summary;
+    }
+
+    /**
+     * Decodes captured records and submits them at the right time.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    private final class Pacer implements MappedLog.Visitor {
+
+        private final ThreadPoolExecutor executor;
+
+        private final Semaphore slots;
+
+        private final Summary summary;
+
+        private long firstReceived = -1L;
+
+        private long started;
+
+        Pacer(ThreadPoolExecutor executor, Semaphore slots, Summary summary) {
+            this.executor = executor;
+            this.slots = slots;
+            this.summary = summary;
+        }
+
+        @Override
+        public void visit(ByteBuffer record) throws IOException {
+            final byte[] bytes = new byte[record.remaining()];
+            record.get(bytes);
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+
+            final long received = input.readLong();
+            final long duration = input.readLong();
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> request = Map.class.cast(BinaryCodec.decode(input));
+
+            pace(received);
+            summary.captured.addAndGet(duration);
+            final long issued = System.nanoTime();
+            acquire();
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        summary.lag.addAndGet(System.nanoTime() - issued);
+                        process(request, summary);
+                    } finally {
+                        slots.release();
+                    }
+                }
+
+            });
+        }
+
+        private void acquire() throws InterruptedIOException {
+            try {
+                slots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while replaying");
+            }
+        }
+
+        private void pace(long received) throws InterruptedIOException {
+            if (firstReceived < 0) {
+                firstReceived = received;
+                started = System.nanoTime();
+            }
+            if (speed == 0) return;
+
+            final long offset = (long) (TimeUnit.MILLISECONDS.toNanos(received - firstReceived) / speed);
+            final long delay = started + offset - System.nanoTime();
+            if (delay <= 0) return;
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while replaying");
+            }
+        }
+
+    }
+
+    private void process(Map<String, Object> request, Summary summary) {
+        final long started = System.nanoTime();
+        try {
+            final Map<String, Object> response = protocol.process(request, connections.get(), false);
+            if (response.containsKey(CustomProtocol.EXCEPTION)) {
+                summary.exceptions.incrementAndGet();
+            }
+        } catch (ProtocolException e) {
+            LOG.debug("Replayed request failed", e);
+            summary.failures.incrementAndGet();
+        /* CHECKSTYLE:OFF */
+        } catch (RuntimeException e) {
+        /* CHECKSTYLE:ON */
+            LOG.debug("Replayed request failed", e);
+            summary.failures.incrementAndGet();
+        } finally {
+            final long used = System.nanoTime() - started;
+            summary.requests.incrementAndGet();
+            summary.used.addAndGet(used);
+
+            long max = summary.max.get();
+            while (used > max && !summary.max.compareAndSet(max, used)) {
+                max = summary.max.get();
+            }
+        }
+    }
+
+    /**
+     * The result of a replay.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    public static final class Summary {
+
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong exceptions = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong used = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLong captured = new AtomicLong();
+        private final AtomicLong lag = new AtomicLong();
+
+        private Summary() {
+
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * Returns the number of requests whose response contained an encoded exception.
+         *
+         * @since 3.0
+         * @return the number of command failures
+         */
+        public long getExceptions() {
+            return exceptions.get();
+        }
+
+        /**
+         * Returns the number of requests which could not be processed at all.
+         *
+         * @since 3.0
+         * @return the number of protocol failures
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getTotalTime(TimeUnit unit) {
+            return unit.convert(used.get(), TimeUnit.NANOSECONDS);
+        }
+
+        public long getMaximumTime(TimeUnit unit) {
+            return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the accumulated processing time of the replayed requests at capture time.
+         *
+         * @since 3.0
+         * @param unit the desired unit
+         * @return the captured processing time
+         */
+        public long getCapturedTime(TimeUnit unit) {
+            return unit.convert(captured.get(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the accumulated time replayed requests had to wait for a free slot
+         * in the queue and a free thread after they were due. A high lag means the target couldn't keep up with the
+         * captured load and the replay fell behind schedule.
+         *
+         * @since 3.0
+         * @param unit the desired unit
+         * @return the accumulated lag
+         */
+        public long getLag(TimeUnit unit) {
+            return unit.convert(lag.get(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            final long count = Math.max(1L, getRequests());
+            return String.format("Replayed %d requests (%d exceptions, %d failures) " +
+                "[avg: %dus, max: %dus, captured avg: %dus, lag avg: %dus]",
+                getRequests(), getExceptions(), getFailures(),
+                getTotalTime(TimeUnit.MICROSECONDS) / count,
+                getMaximumTime(TimeUnit.MICROSECONDS),
+                getCapturedTime(TimeUnit.MICROSECONDS) / count,
+                getLag(TimeUnit.MICROSECONDS) / count);
+        }
+
+    }
+
+}
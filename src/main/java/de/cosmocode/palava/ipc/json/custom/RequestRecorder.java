@@ -0,0 +1,184 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Captures incoming requests of the {@link CustomProtocol} into a rotating
+ * {@link MappedLog}, to be replayed by the {@link ReplayDriver} later on.
+ * Every record contains the time the request was received, the processing time
+ * and the request encoded using the {@link BinaryCodec}. Disabled unless
+ * {@link CaptureConfig#DIRECTORY} is configured.
+ *
+ * @since 3.0
+ * @author agent
+ */
+@Singleton
+final class RequestRecorder implements Initializable, Disposable {
+
+    static final String PREFIX = "capture";
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestRecorder.class);
+
+    // larger buffers won't be kept by their threads
+    private static final int MAXIMUM_RETAINED_BUFFER = 1024 * 1024;
+
+    private final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>() {
+
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+
+    };
+
+    private File directory;
+
+    private int segmentSize = 64 * 1024 * 1024;
+
+    private int segments = 16;
+
+    private MappedLog log;
+
+    @Inject(optional = true)
+    void setDirectory(@Named(CaptureConfig.DIRECTORY) File directory) {
+        this.directory = Preconditions.checkNotNull(directory, "Directory");
+    }
+
+    @Inject(optional = true)
+    void setSegmentSize(@Named(CaptureConfig.SEGMENT_SIZE) int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    @Inject(optional = true)
+    void setSegments(@Named(CaptureConfig.SEGMENTS) int segments) {
+        this.segments = segments;
+    }
+
+    @Override
+    public void initialize() throws LifecycleException {
+        if (directory == null) return;
+        log = new MappedLog(directory, PREFIX, segmentSize, segments);
+        LOG.info("Capturing requests into {}", directory);
+    }
+
+    public boolean isEnabled() {
+        return log != null;
+    }
+
+    /**
+     * Captures the given request as it has been received. Must be called before
+     * any listener had the chance to modify the request and followed by
+     * {@link #finish(long)} on the same thread once processing completed.
+     *
+     * @since 3.0
+     * @param request the request
+     * @return true if the request has been captured and {@link #finish(long)} needs to be called
+     */
+    public boolean begin(Map<String, Object> request) {
+        if (log == null) return false;
+        final Buffer buffer = buffers.get();
+        buffer.reset();
+        try {
+            buffer.data.writeLong(System.currentTimeMillis());
+            // placeholder for the processing time, see finish
+            buffer.data.writeLong(0L);
+            BinaryCodec.encode(request, buffer.data);
+            buffer.data.flush();
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Unable to capture request", e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the request captured by the last call to {@link #begin(Map)} of the
+     * current thread.
+     *
+     * @since 3.0
+     * @param duration the processing time in nanoseconds
+     */
+    public void finish(long duration) {
+        final Buffer buffer = buffers.get();
+        try {
+            buffer.setDuration(duration);
+            log.append(buffer.array(), buffer.size());
+        } catch (IOException e) {
+            LOG.warn("Unable to capture request", e);
+        } finally {
+            if (buffer.array().length > MAXIMUM_RETAINED_BUFFER) {
+                buffers.remove();
+            }
+        }
+    }
+
+    @Override
+    public void dispose() throws LifecycleException {
+        if (log == null) return;
+        try {
+            log.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LifecycleException(e);
+        }
+    }
+
+    /**
+     * A reusable output buffer which exposes its internal array.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        private final DataOutputStream data = new DataOutputStream(this);
+
+        Buffer() {
+            super(4096);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        void setDuration(long duration) {
+            for (int i = 0; i < 8; i++) {
+                buf[8 + i] = (byte) (duration >>> (56 - 8 * i));
+            }
+        }
+
+    }
+
+}
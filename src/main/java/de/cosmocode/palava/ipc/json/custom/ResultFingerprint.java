@@ -0,0 +1,138 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.Map;
+
+/**
+ * Computes a 64-bit fingerprint of a command result. Walks the nested structure of
+ * {@link Map}s, {@link Iterable}s, arrays and scalar values incrementally, without
+ * creating intermediate strings. Map entries are combined in an order-independent
+ * way, so equal maps produce equal fingerprints regardless of their iteration order.
+ * Numbers and the hashes of list elements are mixed before they are combined, because
+ * the multiplicative step alone never carries differences in high bits downward.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class ResultFingerprint {
+
+    private static final long OFFSET = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    // type tags, prevent collisions between e.g. "1" and 1
+    private static final int NULL = 1;
+    private static final int TRUE = 2;
+    private static final int FALSE = 3;
+    private static final int INTEGRAL = 4;
+    private static final int DECIMAL = 5;
+    private static final int STRING = 6;
+    private static final int LIST = 7;
+    private static final int MAP = 8;
+    private static final int OTHER = 9;
+
+    /**
+     * Computes the fingerprint of the given value.
+     *
+     * @since 3.0
+     * @param value the value, may be null
+     * @return the fingerprint
+     */
+    public long of(Object value) {
+        return mix(hash(OFFSET, value));
+    }
+
+    /**
+     * Computes the fingerprint of the given value, formatted as hex string.
+     *
+     * @since 3.0
+     * @param value the value, may be null
+     * @return the fingerprint
+     */
+    public String toString(Object value) {
+        return Long.toHexString(of(value));
+    }
+
+    private long hash(long h, Object value) {
+        if (value == null) {
+            return step(h, NULL);
+        } else if (value instanceof CharSequence) {
+            return hashChars(step(h, STRING), CharSequence.class.cast(value));
+        } else if (value instanceof Boolean) {
+            return step(h, Boolean.TRUE.equals(value) ? TRUE : FALSE);
+        } else if (value instanceof Integer || value instanceof Long ||
+            value instanceof Short || value instanceof Byte) {
+            return step(step(h, INTEGRAL), mix(Number.class.cast(value).longValue()));
+        } else if (value instanceof Double || value instanceof Float) {
+            return step(step(h, DECIMAL), mix(Double.doubleToLongBits(Number.class.cast(value).doubleValue())));
+        } else if (value instanceof Map<?, ?>) {
+            return hashMap(step(h, MAP), Map.class.cast(value));
+        } else if (value instanceof Iterable<?>) {
+            long result = step(h, LIST);
+            for (Object element : Iterable.class.cast(value)) {
+                result = step(result, element(element));
+            }
+            return result;
+        } else if (value instanceof Object[]) {
+            long result = step(h, LIST);
+            for (Object element : Object[].class.cast(value)) {
+                result = step(result, element(element));
+            }
+            return result;
+        } else {
+            return hashChars(step(h, OTHER), value.toString());
+        }
+    }
+
+    private long element(Object element) {
+        return mix(hash(OFFSET, element));
+    }
+
+    private long hashChars(long h, CharSequence value) {
+        long result = h;
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            result = step(result, value.charAt(i));
+        }
+        return step(result, length);
+    }
+
+    private long hashMap(long h, Map<?, ?> map) {
+        // sum of independently mixed entries is insensitive to iteration order
+        long sum = 0L;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            sum += mix(hash(hash(OFFSET, entry.getKey()), entry.getValue()));
+        }
+        return step(step(h, map.size()), mix(sum));
+    }
+
+    private static long step(long h, long value) {
+        return (h ^ value) * PRIME;
+    }
+
+    // finalizer of murmur3, spreads all input bits over the whole result
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Bounded-memory approximation of the heaviest keys of a stream using the
+ * space-saving algorithm by Metwally, Agrawal and El Abbadi. At most capacity
+ * keys are tracked, every key whose weight exceeds total / capacity is
+ * (up to an uneven distribution of keys across stripes) guaranteed to be among them.
+ *
+ * <p>
+ *   Keys are partitioned by hash into independent stripes, each guarded by its own lock,
+ *   so concurrent callers rarely contend. Every stripe keeps its counters in a min-heap,
+ *   hence replacing the smallest counter costs O(log capacity) instead of a full scan.
+ *   Instances are thread-safe.
+ * </p>
+ *
+ * @since 3.0
+ * @author agent
+ * @param <K> the key type
+ */
+final class SpaceSaving<K> {
+
+    private static final int MAXIMUM_STRIPES = 8;
+
+    private final Stripe<K>[] stripes;
+
+    @SuppressWarnings("unchecked")
+    SpaceSaving(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+        final int count = Math.min(MAXIMUM_STRIPES, capacity);
+        final int perStripe = (capacity + count - 1) / count;
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe<K>(perStripe);
+        }
+    }
+
+    /**
+     * Adds the given weight to the given key.
+     *
+     * @since 3.0
+     * @param key the key
+     * @param weight the weight, usually 1 or a cost, negative weights are treated as zero
+     */
+    public void offer(K key, long weight) {
+        final int hash = key.hashCode();
+        final int index = ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % stripes.length;
+        stripes[index].offer(key, Math.max(0L, weight));
+    }
+
+    /**
+     * Copies all tracked counters into the given map, summing up counters
+     * of the same key.
+     *
+     * @since 3.0
+     * @param target the target map
+     */
+    public void drainTo(Map<K, Counter<K>> target) {
+        for (Stripe<K> stripe : stripes) {
+            stripe.drainTo(target);
+        }
+    }
+
+    /**
+     * Sorts the given counters by count descending and returns the first limit of them.
+     *
+     * @since 3.0
+     * @param <K> the key type
+     * @param counters the counters
+     * @param limit the maximum number of results
+     * @return the heaviest counters
+     */
+    static <K> List<Counter<K>> top(Iterable<Counter<K>> counters, int limit) {
+        final List<Counter<K>> list = Lists.newArrayList(counters);
+        Collections.sort(list);
+        return list.size() > limit ? Lists.newArrayList(list.subList(0, limit)) : list;
+    }
+
+    /**
+     * One partition of the key space, a space-saving summary whose counters
+     * are organized as a min-heap ordered by count.
+     *
+     * @since 3.0
+     * @author agent
+     * @param <K> the key type
+     */
+    private static final class Stripe<K> {
+
+        private final Map<K, Counter<K>> counters;
+
+        private final Counter<K>[] heap;
+
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        Stripe(int capacity) {
+            this.counters = Maps.newHashMapWithExpectedSize(capacity);
+            this.heap = new Counter[capacity];
+        }
+
+        synchronized void offer(K key, long weight) {
+            final Counter<K> counter = counters.get(key);
+            if (counter != null) {
+                counter.count += weight;
+                siftDown(counter.index);
+            } else if (size < heap.length) {
+                final Counter<K> created = new Counter<K>(key, weight, 0L);
+                counters.put(key, created);
+                heap[size] = created;
+                created.index = size;
+                siftUp(size++);
+            } else {
+                // replace the smallest counter, its old count becomes the error of the new key
+                final Counter<K> min = heap[0];
+                counters.remove(min.key);
+                final Counter<K> created = new Counter<K>(key, min.count + weight, min.count);
+                counters.put(key, created);
+                heap[0] = created;
+                created.index = 0;
+                siftDown(0);
+            }
+        }
+
+        synchronized void drainTo(Map<K, Counter<K>> target) {
+            for (int i = 0; i < size; i++) {
+                final Counter<K> counter = heap[i];
+                final Counter<K> existing = target.get(counter.key);
+                if (existing == null) {
+                    target.put(counter.key, new Counter<K>(counter.key, counter.count, counter.error));
+                } else {
+                    existing.count += counter.count;
+                    existing.error += counter.error;
+                }
+            }
+        }
+
+        private void siftUp(int position) {
+            int i = position;
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (heap[parent].count <= heap[i].count) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int position) {
+            int i = position;
+            while (true) {
+                final int left = 2 * i + 1;
+                if (left >= size) break;
+                final int right = left + 1;
+                final int smallest = right < size && heap[right].count < heap[left].count ? right : left;
+                if (heap[i].count <= heap[smallest].count) break;
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            final Counter<K> first = heap[i];
+            heap[i] = heap[j];
+            heap[j] = first;
+            heap[i].index = i;
+            heap[j].index = j;
+        }
+
+    }
+
+    /**
+     * A tracked key including its estimated count and the maximum overestimation.
+     *
+     * @since 3.0
+     * @author agent
+     * @param <K> the key type
+     */
+    static final class Counter<K> implements Comparable<Counter<K>> {
+
+        private final K key;
+
+        private long count;
+
+        private long error;
+
+        // position in the heap of the owning stripe
+        private int index;
+
+        Counter(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public int compareTo(Counter<K> that) {
+            return count < that.count ? 1 : (count == that.count ? 0 : -1);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count + (error > 0 ? " (+/-" + error + ")" : "");
+        }
+
+    }
+
+}
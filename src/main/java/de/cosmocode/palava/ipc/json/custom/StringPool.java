@@ -0,0 +1,216 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * A bounded, concurrent canonicalization cache for strings which are repeated
+ * across many requests, like user agents, accept headers and hosts.
+ * Equal strings are replaced by one shared instance, which reduces the heap
+ * retained by long-living calls, connections and sessions. A size of zero disables pooling.
+ *
+ * <p>
+ *   Entries are kept in two generations of half the configured size each. New strings
+ *   enter the young generation. Once it is full, it becomes the old generation and the
+ *   previous old generation is dropped. Strings found in the old generation are moved
+ *   back into the young one, so frequently used instances stay canonical while rare
+ *   ones are evicted, without ever clearing the whole pool.
+ * </p>
+ *
+ * @since 3.0
+ * @author agent
+ */
+@Singleton
+final class StringPool implements Disposable {
+
+    /**
+     * All meta keys whose values are pooled, all of them have a low cardinality.
+     * The client address is not among them, it has one value per client.
+     */
+    static final Set<String> META_KEYS = ImmutableSet.of(
+        "HTTP_USER_AGENT",
+        "HTTP_ACCEPT",
+        "HTTP_ACCEPT_LANGUAGE",
+        "HTTP_ACCEPT_ENCODING",
+        "HTTP_ACCEPT_CHARSET",
+        "HTTP_HOST",
+        "HTTPS",
+        "REQUEST_METHOD"
+    );
+
+    private static final Logger LOG = LoggerFactory.getLogger(StringPool.class);
+
+    private volatile ConcurrentMap<String, String> young = new MapMaker().makeMap();
+
+    private volatile ConcurrentMap<String, String> old = new MapMaker().makeMap();
+
+    // size of the young generation
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private int maximumSize = 4096;
+
+    @Inject(optional = true)
+    void setMaximumSize(@Named(MetaConfig.POOL_SIZE) int maximumSize) {
+        Preconditions.checkArgument(maximumSize >= 0, "MaximumSize must not be negative");
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Returns the canonical instance of the given string.
+     *
+     * @since 3.0
+     * @param value the string, may be null
+     * @return an equal string, which may be the given one
+     */
+    public String intern(String value) {
+        if (value == null || maximumSize == 0) return value;
+
+        final ConcurrentMap<String, String> current = young;
+        final String existing = current.get(value);
+        if (existing != null) {
+            hits.incrementAndGet();
+            return existing;
+        }
+
+        final String survivor = old.get(value);
+        if (survivor != null) {
+            hits.incrementAndGet();
+            return add(current, survivor);
+        }
+
+        misses.incrementAndGet();
+        return add(current, value);
+    }
+
+    private String add(ConcurrentMap<String, String> current, String value) {
+        final String previous = current.putIfAbsent(value, value);
+        if (previous != null) return previous;
+        if (size.incrementAndGet() >= Math.max(1, maximumSize / 2)) {
+            rotate(current);
+        }
+        return value;
+    }
+
+    private synchronized void rotate(ConcurrentMap<String, String> full) {
+        // another thread may have rotated already
+        if (young != full) return;
+        LOG.trace("Young generation of the string pool is full, rotating");
+        old = full;
+        young = new MapMaker().makeMap();
+        size.set(0);
+    }
+
+    /**
+     * Returns the canonical instance of the given meta value if the given key
+     * belongs to the {@link #META_KEYS}.
+     *
+     * @since 3.0
+     * @param key the meta key
+     * @param value the value, may be null
+     * @return an equal string, which may be the given one
+     */
+    public String intern(String key, String value) {
+        return META_KEYS.contains(key) ? intern(value) : value;
+    }
+
+    /**
+     * Replaces all string values of the {@link #META_KEYS} in the given map by their
+     * canonical instances. Unmodifiable maps are left untouched.
+     *
+     * @since 3.0
+     * @param meta the meta information
+     */
+    public void internAll(Map<?, ?> meta) {
+        if (maximumSize == 0) return;
+
+        @SuppressWarnings("unchecked")
+        final Map<Object, Object> map = (Map<Object, Object>) meta;
+
+        try {
+            for (String key : META_KEYS) {
+                final Object value = map.get(key);
+                if (value instanceof String) {
+                    map.put(key, intern(String.class.cast(value)));
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            LOG.trace("Unable to intern meta values of unmodifiable map {}", meta);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Computes the ratio of lookups which found a pooled instance.
+     *
+     * @since 3.0
+     * @return the hit rate between 0 and 1
+     */
+    public double getHitRate() {
+        final long h = getHits();
+        final long total = h + getMisses();
+        return total == 0 ? 0d : (double) h / total;
+    }
+
+    /**
+     * Returns the number of pooled strings. Strings which were just moved from
+     * the old into the young generation are counted twice.
+     *
+     * @since 3.0
+     * @return the approximate size
+     */
+    public int getSize() {
+        return young.size() + old.size();
+    }
+
+    @Override
+    public void dispose() throws LifecycleException {
+        LOG.info("String pool [size: {}, hits: {}, misses: {}, hit rate: {}]", new Object[] {
+            getSize(), getHits(), getMisses(), getHitRate()
+        });
+        young.clear();
+        old.clear();
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads cpu time and allocated bytes of the current thread using the
+ * platform {@link ThreadMXBean}. Allocated bytes are only available
+ * if the vm provides the {@code com.sun.management} extension.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class ThreadResources {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThreadResources.class);
+
+    private static final String SUN_THREAD_MX_BEAN = "com.sun.management.ThreadMXBean";
+
+    private static final ThreadResources INSTANCE = new ThreadResources();
+
+    private final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+    private final boolean cpuTime;
+
+    private final boolean allocatedBytes;
+
+    private ThreadResources() {
+        this.cpuTime = enableCpuTime();
+        this.allocatedBytes = enableAllocatedBytes();
+    }
+
+    private boolean enableCpuTime() {
+        if (!bean.isCurrentThreadCpuTimeSupported()) {
+            LOG.info("Thread cpu time is not supported by this vm");
+            return false;
+        }
+        try {
+            if (!bean.isThreadCpuTimeEnabled()) {
+                bean.setThreadCpuTimeEnabled(true);
+            }
+            return true;
+        } catch (UnsupportedOperationException e) {
+            LOG.info("Unable to enable thread cpu time", e);
+            return false;
+        }
+    }
+
+    private boolean enableAllocatedBytes() {
+        try {
+            if (!Class.forName(SUN_THREAD_MX_BEAN).isInstance(bean)) {
+                return false;
+            }
+        } catch (ClassNotFoundException e) {
+            LOG.info("{} is not available, allocated bytes will not be recorded", SUN_THREAD_MX_BEAN);
+            return false;
+        }
+        return SunAllocation.enable(bean);
+    }
+
+    /**
+     * Provides the vm wide instance.
+     *
+     * @since 3.0
+     * @return the shared instance
+     */
+    static ThreadResources get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cpu time of the current thread.
+     *
+     * @since 3.0
+     * @return the cpu time in nanoseconds or -1 if not supported
+     */
+    public long getCpuTime() {
+        return cpuTime ? bean.getCurrentThreadCpuTime() : -1L;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread.
+     *
+     * @since 3.0
+     * @return the allocated bytes or -1 if not supported
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes ? SunAllocation.get(bean) : -1L;
+    }
+
+    /**
+     * Isolates all references to the {@code com.sun.management} extension, so this class
+     * is only loaded after the extension was found to be present.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    private static final class SunAllocation {
+
+        private SunAllocation() {
+
+        }
+
+        static boolean enable(ThreadMXBean bean) {
+            final com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+            if (!sun.isThreadAllocatedMemorySupported()) {
+                LOG.info("Thread allocated memory is not supported by this vm");
+                return false;
+            }
+            try {
+                if (!sun.isThreadAllocatedMemoryEnabled()) {
+                    sun.setThreadAllocatedMemoryEnabled(true);
+                }
+                return true;
+            } catch (UnsupportedOperationException e) {
+                LOG.info("Unable to enable thread allocated memory", e);
+                return false;
+            }
+        }
+
+        static long get(ThreadMXBean bean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+    }
+
+}
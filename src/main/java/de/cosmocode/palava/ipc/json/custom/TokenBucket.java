@@ -0,0 +1,72 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket implemented using the generic cell rate algorithm.
+ * The whole state is the theoretical arrival time of the next call, which
+ * allows updating it using a single compare-and-set.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class TokenBucket {
+
+    // theoretical arrival time in nanoseconds
+    private final AtomicLong arrival;
+
+    TokenBucket(long now) {
+        this.arrival = new AtomicLong(now);
+    }
+
+    /**
+     * Tries to take one token out of this bucket.
+     *
+     * @since 3.0
+     * @param now the current time in nanoseconds
+     * @param interval the time it takes to refill one token, in nanoseconds
+     * @param burst the capacity of this bucket
+     * @return true if a token was available, false otherwise
+     */
+    boolean tryAcquire(long now, long interval, int burst) {
+        final long limit = interval * burst;
+        while (true) {
+            final long current = arrival.get();
+            final long next = Math.max(current, now) + interval;
+            if (next - now > limit) {
+                return false;
+            } else if (arrival.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Checks whether this bucket is full and has been unused for at least the given time.
+     *
+     * @since 3.0
+     * @param now the current time in nanoseconds
+     * @param idle the idle time in nanoseconds
+     * @return true if this bucket can be discarded
+     */
+    boolean isIdle(long now, long idle) {
+        return now - arrival.get() >= idle;
+    }
+
+}
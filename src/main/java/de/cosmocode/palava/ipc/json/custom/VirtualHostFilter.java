@@ -0,0 +1,98 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.ipc.IpcCall;
+import de.cosmocode.palava.ipc.IpcCallFilter;
+import de.cosmocode.palava.ipc.IpcCallFilterChain;
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+
+/**
+ * A filter which accounts every call to the virtual host of the current
+ * request, as sent in the HTTP_HOST meta information, and runs it inside the
+ * bulkhead of that host. Calls without a host are accounted as
+ * {@link VirtualHosts#UNKNOWN}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+@Singleton
+final class VirtualHostFilter implements IpcCallFilter {
+
+    static final String HOST = "HTTP_HOST";
+
+    private final VirtualHosts hosts;
+
+    private ThreadResources resources;
+
+    @Inject
+    VirtualHostFilter(VirtualHosts hosts) {
+        this.hosts = Preconditions.checkNotNull(hosts, "Hosts");
+    }
+
+    @Inject(optional = true)
+    void setCpuTime(@Named(HostConfig.CPU_TIME) boolean cpuTime) {
+        // enables thread cpu time measurement vm wide, hence only if requested
+        this.resources = cpuTime ? ThreadResources.get() : null;
+    }
+
+    @Override
+    public Map<String, Object> filter(IpcCall call, IpcCommand command, IpcCallFilterChain chain)
+        throws IpcCommandExecutionException {
+
+        if (call.get(Warmup.MARKER) != null) {
+            // keep synthetic calls out of the statistics
+            return chain.filter(call, command);
+        }
+
+        final VirtualHosts.Usage usage = hosts.get(host(call));
+        hosts.acquire(usage);
+
+        final long startedNanos = System.nanoTime();
+        final ThreadResources r = resources;
+        final long startedCpu = r == null ? -1L : r.getCpuTime();
+        boolean succeeded = false;
+
+        try {
+            final Map<String, Object> result = chain.filter(call, command);
+            succeeded = true;
+            return result;
+        } finally {
+            final long stoppedCpu = r == null ? -1L : r.getCpuTime();
+            usage.record(System.nanoTime() - startedNanos,
+                startedCpu < 0 || stoppedCpu < 0 ? -1L : stoppedCpu - startedCpu, succeeded);
+            hosts.release(usage);
+        }
+    }
+
+    private String host(IpcCall call) {
+        // the browser throws if the host is missing, which isn't exceptional here
+        final Object meta = call.get(CustomProtocol.META);
+        if (!(meta instanceof Map<?, ?>)) return null;
+        final Object host = Map.class.cast(meta).get(HOST);
+        return host instanceof String && String.class.cast(host).length() > 0 ? String.class.cast(host) : null;
+    }
+
+}
@@ -0,0 +1,452 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Accounts calls, errors, wall clock and cpu time per virtual host and bounds
+ * the number of concurrent executions per host using a {@link Bulkhead}, so a
+ * traffic spike or a slow backend of one site can't occupy the workers of all
+ * other sites. The host header is sent by clients, hence only the configured
+ * {@link HostConfig#HOSTS} are tracked if present. Otherwise the number of tracked
+ * hosts is limited (see {@link HostConfig#MAXIMUM_HOSTS}), hosts without calls
+ * for the {@link HostConfig#IDLE_TIMEOUT} are evicted in the background and all
+ * further hosts share one entry. Contributes its statistics to the
+ * {@link ProtocolMetrics} as {@link MetricsSource}.
+ *
+ * <p>
+ *   The totals of evicted hosts are added to the shared {@value #OTHER} entry, which
+ *   is never evicted itself, so sums across all hosts never decrease. A host which
+ *   returns after being evicted starts from zero again, its counters behave like
+ *   those of a restarted process.
+ * </p>
+ *
+ * @since 3.0
+ * @author agent
+ */
+@Singleton
+public final class VirtualHosts implements VirtualHostsMBean, MetricsSource, Initializable, Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualHosts.class);
+
+    private static final String OBJECT_NAME = "de.cosmocode.palava.ipc.json.custom:type=VirtualHosts";
+
+    static final String UNKNOWN = "unknown";
+
+    static final String OTHER = "other";
+
+    private final ConcurrentMap<String, Usage> usages = new MapMaker().makeMap();
+
+    private final ProtocolMetrics metrics;
+
+    private final AtomicLong evicted = new AtomicLong();
+
+    private Set<String> hosts = ImmutableSet.of();
+
+    private int permits;
+
+    private long timeout;
+
+    private TimeUnit timeoutUnit = TimeUnit.MILLISECONDS;
+
+    private int maximumHosts = 1024;
+
+    private long idleTimeout = 10;
+
+    private TimeUnit idleTimeoutUnit = TimeUnit.MINUTES;
+
+    private ScheduledExecutorService scheduler;
+
+    private ObjectName objectName;
+
+    @Inject
+    VirtualHosts(ProtocolMetrics metrics) {
+        this.metrics = Preconditions.checkNotNull(metrics, "Metrics");
+    }
+
+    @Inject(optional = true)
+    void setHosts(@Named(HostConfig.HOSTS) String hosts) {
+        final ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        for (String host : Splitter.on(',').trimResults().omitEmptyStrings().split(hosts)) {
+            builder.add(host.toLowerCase(Locale.ENGLISH));
+        }
+        this.hosts = builder.build();
+    }
+
+    @Inject(optional = true)
+    void setPermits(@Named(HostConfig.PERMITS) int permits) {
+        this.permits = permits;
+    }
+
+    @Inject(optional = true)
+    void setTimeout(@Named(HostConfig.TIMEOUT) long timeout) {
+        Preconditions.checkArgument(timeout >= 0, "Timeout must not be negative");
+        this.timeout = timeout;
+    }
+
+    @Inject(optional = true)
+    void setTimeoutUnit(@Named(HostConfig.TIMEOUT_UNIT) TimeUnit timeoutUnit) {
+        this.timeoutUnit = Preconditions.checkNotNull(timeoutUnit, "TimeoutUnit");
+    }
+
+    @Inject(optional = true)
+    void setMaximumHosts(@Named(HostConfig.MAXIMUM_HOSTS) int maximumHosts) {
+        Preconditions.checkArgument(maximumHosts > 0, "MaximumHosts must be positive");
+        this.maximumHosts = maximumHosts;
+    }
+
+    @Inject(optional = true)
+    void setIdleTimeout(@Named(HostConfig.IDLE_TIMEOUT) long idleTimeout) {
+        Preconditions.checkArgument(idleTimeout > 0, "IdleTimeout must be positive");
+        this.idleTimeout = idleTimeout;
+    }
+
+    @Inject(optional = true)
+    void setIdleTimeoutUnit(@Named(HostConfig.IDLE_TIMEOUT_UNIT) TimeUnit idleTimeoutUnit) {
+        this.idleTimeoutUnit = Preconditions.checkNotNull(idleTimeoutUnit, "IdleTimeoutUnit");
+    }
+
+    @Override
+    public void initialize() throws LifecycleException {
+        try {
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (InstanceAlreadyExistsException e) {
+            LOG.warn("{} is already registered, e.g. by another injector, skipping registration", OBJECT_NAME);
+        } catch (JMException e) {
+            throw new LifecycleException(e);
+        }
+        metrics.addSource(this);
+
+        // an allowlist is bounded by configuration
+        if (!hosts.isEmpty()) return;
+
+        final long idle = idleTimeoutUnit.toNanos(idleTimeout);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("palava-custom-virtual-hosts"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                sweep(System.nanoTime(), idle);
+            }
+
+        }, idle / 2, idle / 2, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Provides the usage of the given host, creating it if necessary.
+     *
+     * @since 3.0
+     * @param host the http host, may be null
+     * @return the usage of the given host or the shared one if too many hosts are known
+     */
+    public Usage get(String host) {
+        final String key = host == null ? UNKNOWN : host.toLowerCase(Locale.ENGLISH);
+        Usage usage = usages.get(key);
+        if (usage == null) {
+            final boolean tracked = host == null ||
+                (hosts.isEmpty() ? getTracked() < maximumHosts : hosts.contains(key));
+            usage = getOrCreate(tracked ? key : OTHER);
+        }
+        usage.touch(System.nanoTime());
+        return usage;
+    }
+
+    private int getTracked() {
+        // the shared entry doesn't occupy a slot
+        return usages.size() - (usages.containsKey(OTHER) ? 1 : 0);
+    }
+
+    private Usage getOrCreate(String key) {
+        final Usage usage = usages.get(key);
+        if (usage != null) return usage;
+        final Usage created = new Usage(key, new Bulkhead(key + " host", permits));
+        final Usage existing = usages.putIfAbsent(key, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * Evicts all hosts which haven't been used for the given time and have no running calls.
+     * Their totals are added to the shared {@value #OTHER} entry.
+     *
+     * @since 3.0
+     * @param now the current time in nanoseconds
+     * @param idle the idle time in nanoseconds
+     * @return the number of evicted hosts
+     */
+    int sweep(long now, long idle) {
+        int removed = 0;
+        final Iterator<Usage> iterator = usages.values().iterator();
+        while (iterator.hasNext()) {
+            final Usage usage = iterator.next();
+            if (!OTHER.equals(usage.getHost()) && usage.isIdle(now, idle)) {
+                iterator.remove();
+                usage.addTo(getOrCreate(OTHER));
+                removed++;
+            }
+        }
+        evicted.addAndGet(removed);
+        LOG.trace("Evicted {} idle virtual hosts", removed);
+        return removed;
+    }
+
+    /**
+     * Acquires an execution slot for the given host.
+     *
+     * @since 3.0
+     * @param usage the usage of the host
+     * @throws OverloadedException if no slot became available in time
+     */
+    public void acquire(Usage usage) {
+        // counted before waiting, so the host isn't evicted in the meantime
+        usage.running.incrementAndGet();
+        boolean acquired = false;
+        try {
+            usage.getBulkhead().acquire(timeout, timeoutUnit);
+            acquired = true;
+        } finally {
+            if (!acquired) {
+                usage.running.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Releases the execution slot of the given host.
+     *
+     * @since 3.0
+     * @param usage the usage of the host, previously passed to {@link #acquire(Usage)}
+     */
+    public void release(Usage usage) {
+        usage.getBulkhead().release();
+        usage.running.decrementAndGet();
+    }
+
+    /**
+     * Provides a snapshot of all usages, sorted by total cpu time descending.
+     *
+     * @since 3.0
+     * @return a sorted copy of all usages
+     */
+    public List<Usage> getAll() {
+        final List<Usage> list = Lists.newArrayList(usages.values());
+        Collections.sort(list, ByCpuTime.INSTANCE);
+        return list;
+    }
+
+    @Override
+    public String[] getUsages() {
+        final List<Usage> all = getAll();
+        final String[] lines = new String[all.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = all.get(i).toString();
+        }
+        return lines;
+    }
+
+    @Override
+    public void writeTo(PrometheusFormat format) throws IOException {
+        final List<Usage> all = getAll();
+        format.header("palava_custom_host_calls_total", "counter", "Calls by virtual host.");
+        for (Usage usage : all) {
+            format.sample("palava_custom_host_calls_total", "host", usage.getHost(), usage.getCalls());
+        }
+        format.header("palava_custom_host_errors_total", "counter", "Failed and rejected calls by virtual host.");
+        for (Usage usage : all) {
+            format.sample("palava_custom_host_errors_total", "host", usage.getHost(), usage.getErrors());
+        }
+        format.header("palava_custom_host_wall_seconds_total", "counter", "Wall clock time by virtual host.");
+        for (Usage usage : all) {
+            format.sample("palava_custom_host_wall_seconds_total", "host", usage.getHost(),
+                usage.getWallTime(TimeUnit.NANOSECONDS) / 1e9);
+        }
+        format.header("palava_custom_host_cpu_seconds_total", "counter", "Cpu time by virtual host.");
+        for (Usage usage : all) {
+            format.sample("palava_custom_host_cpu_seconds_total", "host", usage.getHost(),
+                usage.getCpuTime(TimeUnit.NANOSECONDS) / 1e9);
+        }
+        format.header("palava_custom_host_duration_seconds", "summary", "Duration of calls by virtual host.");
+        for (Usage usage : all) {
+            usage.getLatency().writeTo(format, "palava_custom_host_duration_seconds", "host", usage.getHost());
+        }
+        format.header("palava_custom_host_evictions_total", "counter", "Idle virtual hosts evicted.");
+        format.sample("palava_custom_host_evictions_total", evicted.get());
+    }
+
+    @Override
+    public void dispose() throws LifecycleException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        metrics.removeSource(this);
+        for (Usage usage : getAll()) {
+            LOG.info("{}", usage);
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOG.warn("Unable to unregister " + objectName, e);
+            }
+        }
+    }
+
+    /**
+     * Accumulated resource usage of one virtual host.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    static final class Usage implements ByCpuTime.Measured {
+
+        private final String host;
+
+        private final Bulkhead bulkhead;
+
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong wallTime = new AtomicLong();
+        private final AtomicLong cpuTime = new AtomicLong();
+
+        private final DurationHistogram latency = new DurationHistogram();
+
+        private final AtomicInteger running = new AtomicInteger();
+
+        private volatile long lastAccess;
+
+        Usage(String host, Bulkhead bulkhead) {
+            this.host = host;
+            this.bulkhead = bulkhead;
+        }
+
+        void touch(long now) {
+            lastAccess = now;
+        }
+
+        boolean isIdle(long now, long idle) {
+            return now - lastAccess >= idle && running.get() == 0;
+        }
+
+        void record(long wallNanos, long cpuNanos, boolean succeeded) {
+            calls.incrementAndGet();
+            if (!succeeded) {
+                errors.incrementAndGet();
+            }
+            wallTime.addAndGet(wallNanos);
+            latency.record(wallNanos);
+            if (cpuNanos > 0) {
+                cpuTime.addAndGet(cpuNanos);
+            }
+        }
+
+        void addTo(Usage target) {
+            target.calls.addAndGet(calls.get());
+            // the target's bulkhead doesn't know about the rejections of this one
+            target.errors.addAndGet(getErrors());
+            target.wallTime.addAndGet(wallTime.get());
+            target.cpuTime.addAndGet(cpuTime.get());
+            target.latency.add(latency);
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public Bulkhead getBulkhead() {
+            return bulkhead;
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        /**
+         * Returns the number of failed calls, including calls rejected by the bulkhead.
+         *
+         * @since 3.0
+         * @return the number of errors
+         */
+        public long getErrors() {
+            return errors.get() + bulkhead.getRejected();
+        }
+
+        public long getWallTime(TimeUnit unit) {
+            return unit.convert(wallTime.get(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public long getCpuTime(TimeUnit unit) {
+            return unit.convert(cpuTime.get(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the durations of all calls.
+         *
+         * @since 3.0
+         * @return the wall clock time histogram
+         */
+        public DurationHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            final long count = Math.max(1L, getCalls());
+            return String.format("%s [calls: %d, errors: %d, wall: %dms, cpu: %dms, avg wall: %dms, " +
+                "avg cpu: %dms, active: %d, waiting: %d]",
+                host, getCalls(), getErrors(), getWallTime(TimeUnit.MILLISECONDS),
+                getCpuTime(TimeUnit.MILLISECONDS), getWallTime(TimeUnit.MILLISECONDS) / count,
+                getCpuTime(TimeUnit.MILLISECONDS) / count, bulkhead.getActive(), bulkhead.getWaiting());
+        }
+
+    }
+
+}
@@ -0,0 +1,400 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.IpcCallScope;
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommandExecutor;
+import de.cosmocode.palava.ipc.IpcSession;
+import de.cosmocode.palava.ipc.protocol.DetachedConnection;
+import de.cosmocode.palava.ipc.protocol.ProtocolException;
+import de.cosmocode.palava.scope.AbstractScopeContext;
+
+/**
+ * Warms up the {@link CustomProtocol} before it is registered, so class loading and
+ * jit compilation don't hit the first real requests. Exercises the {@link ThrowableEncoder},
+ * the {@link ResultFingerprint}, the {@link BinaryCodec}, the {@link CurrentBrowser} and all
+ * configured {@link WarmupSafe} commands. Commands are sent as synthetic requests through
+ * the protocol or, if {@link WarmupConfig#PROTOCOL} is disabled, executed directly using the
+ * command executor within the call scope. Regardless of the configured commands, every
+ * iteration sends a request without a command and a request for an unknown command through
+ * the protocol, so request handling, session resolution and the error paths are warm
+ * even if no command is configured. All calls are attached to a synthetic connection and
+ * session, so no real session is created, and they are marked using {@link #MARKER}, so
+ * the capture, the rate limiter and the metrics ignore them.
+ * Fails if none of the configured commands succeeded.
+ *
+ * @since 3.0
+ * @author agent
+ */
+final class Warmup {
+
+    /**
+     * Call scope key which is present in all calls issued by the warm-up or
+     * replayed by the {@link ReplayDriver}.
+     */
+    static final String MARKER = "CUSTOM_WARMUP";
+
+    private static final Logger LOG = LoggerFactory.getLogger(Warmup.class);
+
+    private static final String SESSION_ID = "warmup";
+
+    // no such class exists, the executor fails to look it up
+    private static final String UNKNOWN_COMMAND = Warmup.class.getName() + "$Unknown";
+
+    private static final Map<String, Object> META = ImmutableMap.copyOf(createMeta());
+
+    private final IpcCommandExecutor executor;
+
+    private final IpcCallScope scope;
+
+    private final StringPool pool;
+
+    private boolean enabled;
+
+    private int iterations = 1000;
+
+    private List<String> commands = Lists.newArrayList();
+
+    private boolean protocol = true;
+
+    @Inject
+    Warmup(IpcCommandExecutor executor, IpcCallScope scope, StringPool pool) {
+        this.executor = Preconditions.checkNotNull(executor, "Executor");
+        this.scope = Preconditions.checkNotNull(scope, "Scope");
+        this.pool = Preconditions.checkNotNull(pool, "Pool");
+    }
+
+    @Inject(optional = true)
+    void setEnabled(@Named(WarmupConfig.ENABLED) boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Inject(optional = true)
+    void setIterations(@Named(WarmupConfig.ITERATIONS) int iterations) {
+        Preconditions.checkArgument(iterations > 0, "Iterations must be positive");
+        this.iterations = iterations;
+    }
+
+    @Inject(optional = true)
+    void setCommands(@Named(WarmupConfig.COMMANDS) String commands) {
+        this.commands = Lists.newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(commands));
+    }
+
+    @Inject(optional = true)
+    void setProtocol(@Named(WarmupConfig.PROTOCOL) boolean protocol) {
+        this.protocol = protocol;
+    }
+
+    private static Map<String, Object> createMeta() {
+        final Map<String, Object> meta = Maps.newHashMap();
+        meta.put(CustomProtocol.IDENTIFIER, "127.0.0.1");
+        meta.put("REMOTE_ADDRESS", "127.0.0.1");
+        meta.put("HTTP_HOST", "localhost");
+        meta.put("HTTPS", "0");
+        meta.put("REQUEST_URI", "/");
+        meta.put("REQUEST_METHOD", "GET");
+        meta.put("HTTP_REFERER", "http://localhost/");
+        meta.put("HTTP_USER_AGENT", "palava-warmup");
+        meta.put("HTTP_ACCEPT", "*/*");
+        meta.put("HTTP_ACCEPT_LANGUAGE", "en");
+        meta.put("HTTP_ACCEPT_ENCODING", "identity");
+        meta.put("HTTP_ACCEPT_CHARSET", "utf-8");
+        return meta;
+    }
+
+    /**
+     * Runs the warm-up, if enabled.
+     *
+     * @since 3.0
+     * @param target the protocol to warm up
+     * @throws LifecycleException if commands were configured but none of them succeeded
+     */
+    public void run(CustomProtocol target) throws LifecycleException {
+        if (!enabled) return;
+
+        final List<String> safe = safeCommands();
+        final List<String> remaining = Lists.newArrayList(safe);
+        final long started = System.currentTimeMillis();
+
+        final ThrowableEncoder encoder = new ThrowableEncoder();
+        final ResultFingerprint fingerprint = new ResultFingerprint();
+        final Exception exception = new IllegalStateException("warm-up");
+        final WarmupConnection connection = new WarmupConnection();
+
+        for (int i = 0; i < iterations; i++) {
+            final Map<String, Object> encoded = encoder.encode(exception);
+            fingerprint.of(encoded);
+            roundTrip(encoded);
+            browse(connection);
+            probe(target, connection);
+
+            final Iterator<String> iterator = remaining.iterator();
+            while (iterator.hasNext()) {
+                final String command = iterator.next();
+                final boolean success = protocol ?
+                    process(target, connection, command) :
+                    execute(connection, command);
+                if (!success) {
+                    // a failing command won't warm up anything but the error handling
+                    iterator.remove();
+                }
+            }
+        }
+
+        if (!safe.isEmpty() && remaining.isEmpty()) {
+            throw new LifecycleException("None of the warm-up commands " + safe + " succeeded");
+        }
+
+        LOG.info("Warmed up custom protocol using {} iterations and commands {} in {}ms", new Object[] {
+            iterations, remaining, System.currentTimeMillis() - started
+        });
+    }
+
+    private List<String> safeCommands() {
+        final List<String> safe = Lists.newArrayList();
+        for (String command : commands) {
+            final Class<?> type;
+            try {
+                type = Class.forName(command, true, Thread.currentThread().getContextClassLoader());
+            } catch (ClassNotFoundException e) {
+                LOG.warn("Skipping unknown warm-up command {}", command);
+                continue;
+            }
+            if (!IpcCommand.class.isAssignableFrom(type)) {
+                LOG.warn("Skipping warm-up command {}, it is not an ipc command", command);
+            } else if (!type.isAnnotationPresent(WarmupSafe.class)) {
+                LOG.warn("Skipping warm-up command {}, it is not annotated with @{}",
+                    command, WarmupSafe.class.getSimpleName());
+            } else {
+                safe.add(command);
+            }
+        }
+        return safe;
+    }
+
+    private void roundTrip(Map<String, Object> value) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            BinaryCodec.encode(value, new DataOutputStream(bytes));
+            BinaryCodec.decode(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private CustomCall newCall(DetachedConnection connection) {
+        final CustomCall call = new CustomCall(Maps.<String, Object>newHashMap());
+        call.attachTo(connection);
+        call.put(CustomProtocol.META, Maps.newHashMap(META));
+        call.put(MARKER, Boolean.TRUE);
+        return call;
+    }
+
+    private void browse(DetachedConnection connection) {
+        final CurrentBrowser browser = new CurrentBrowser(newCall(connection), pool);
+        browser.getHttpHost();
+        browser.isHttps();
+        browser.getRequestUri();
+        browser.getRequestMethod();
+        browser.getReferer();
+        browser.getRemoteAddress();
+        browser.getUserAgent();
+        browser.getHttpAccept();
+        browser.getHttpAcceptLanguage();
+        browser.getHttpAcceptEncoding();
+        browser.getHttpAcceptCharset();
+    }
+
+    private boolean execute(DetachedConnection connection, String command) {
+        final CustomCall call = newCall(connection);
+        scope.enter(call);
+        try {
+            executor.execute(command, call);
+            return true;
+        /* CHECKSTYLE:OFF */
+        } catch (Exception e) {
+        /* CHECKSTYLE:ON */
+            LOG.warn("Warm-up execution of " + command + " failed, skipping it", e);
+            return false;
+        } finally {
+            scope.exit();
+        }
+    }
+
+    private Map<String, Object> newRequest(String command) {
+        final Map<String, Object> request = Maps.newHashMap();
+        request.put(CustomProtocol.PROTOCOL, CustomProtocol.VERSION);
+        request.put(CustomProtocol.META, Maps.newHashMap(META));
+        request.put(CustomProtocol.SESSION, SESSION_ID);
+        if (command != null) {
+            request.put(CustomProtocol.COMMAND, command);
+        }
+        request.put(CustomProtocol.ARGUMENTS, Maps.<String, Object>newHashMap());
+        return request;
+    }
+
+    private void probe(CustomProtocol target, DetachedConnection connection) {
+        try {
+            // rejected after the session has been resolved
+            target.process(newRequest(null), connection, false);
+        } catch (ProtocolException expected) {
+            // that's what this request is for
+        }
+        try {
+            // fails in the executor, the exception is encoded into the response
+            target.process(newRequest(UNKNOWN_COMMAND), connection, false);
+        } catch (ProtocolException e) {
+            LOG.debug("Warm-up request for an unknown command failed", e);
+        }
+    }
+
+    private boolean process(CustomProtocol target, DetachedConnection connection, String command) {
+        final Map<String, Object> response;
+        try {
+            response = target.process(newRequest(command), connection, false);
+        } catch (ProtocolException e) {
+            LOG.warn("Warm-up request for " + command + " failed, skipping it", e);
+            return false;
+        }
+        if (response.containsKey(CustomProtocol.EXCEPTION)) {
+            LOG.warn("Warm-up request for {} failed, skipping it: {}",
+                command, response.get(CustomProtocol.EXCEPTION));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * A session which is never stored nor expires, shared by all warm-up calls.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    private static final class WarmupSession extends AbstractScopeContext implements IpcSession {
+
+        private final ConcurrentMap<Object, Object> context = new MapMaker().makeMap();
+
+        private final Date started = new Date();
+
+        @Override
+        protected ConcurrentMap<Object, Object> delegate() {
+            return context;
+        }
+
+        @Override
+        public String getSessionId() {
+            return SESSION_ID;
+        }
+
+        @Override
+        public String getIdentifier() {
+            return META.get(CustomProtocol.IDENTIFIER).toString();
+        }
+
+        @Override
+        public long getTimeout(TimeUnit unit) {
+            return unit.convert(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+
+        @Override
+        public void setTimeout(long time, TimeUnit unit) {
+            // never expires
+        }
+
+        @Override
+        public Date startedAt() {
+            return new Date(started.getTime());
+        }
+
+        @Override
+        public Date lastAccessTime() {
+            return new Date();
+        }
+
+        @Override
+        public void touch() {
+            // nothing to track
+        }
+
+        @Override
+        public boolean isExpired() {
+            return false;
+        }
+
+    }
+
+    /**
+     * A connection which is permanently attached to a {@link WarmupSession}.
+     *
+     * @since 3.0
+     * @author agent
+     */
+    private static final class WarmupConnection extends AbstractScopeContext implements DetachedConnection {
+
+        private final ConcurrentMap<Object, Object> context = new MapMaker().makeMap();
+
+        private final IpcSession session = new WarmupSession();
+
+        @Override
+        protected ConcurrentMap<Object, Object> delegate() {
+            return context;
+        }
+
+        @Override
+        public IpcSession getSession() {
+            return session;
+        }
+
+        @Override
+        public boolean isAttached() {
+            return true;
+        }
+
+        @Override
+        public void attachTo(IpcSession s) {
+            Preconditions.checkArgument(s == session, "Warm-up connections can't be attached to %s", s);
+        }
+
+    }
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+/**
+ * Configuration keys for the warm-up of the {@link CustomProtocol}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class WarmupConfig {
+
+    public static final String PREFIX = "custom.warmup.";
+
+    public static final String ENABLED = PREFIX + "enabled";
+    public static final String ITERATIONS = PREFIX + "iterations";
+
+    /**
+     * Comma separated list of command class names, all of them have to be annotated with {@link WarmupSafe}.
+     */
+    public static final String COMMANDS = PREFIX + "commands";
+
+    /**
+     * Whether commands should be sent through the protocol instead of the command executor, defaults to true.
+     */
+    public static final String PROTOCOL = PREFIX + "protocol";
+
+    private WarmupConfig() {
+    }
+}
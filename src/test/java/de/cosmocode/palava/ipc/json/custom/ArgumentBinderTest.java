@@ -0,0 +1,204 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Tests {@link ArgumentBinder}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class ArgumentBinderTest {
+
+    /**
+     * Declares one argument of every supported primitive type.
+     */
+    static final class Primitives {
+
+        @Argument(required = false)
+        private byte byteValue;
+
+        @Argument(required = false)
+        private short shortValue;
+
+        @Argument(required = false)
+        private int intValue;
+
+        @Argument(required = false)
+        private long longValue;
+
+        @Argument(required = false)
+        private float floatValue;
+
+        @Argument(required = false)
+        private double doubleValue;
+
+        @Argument(required = false)
+        private boolean booleanValue;
+
+        @Argument(required = false)
+        private char charValue;
+
+    }
+
+    /**
+     * Declares required, renamed and defaulted arguments.
+     */
+    static final class Search {
+
+        @Argument
+        private String query;
+
+        @Argument(value = "max", required = false)
+        private Integer limit = 10;
+
+        @Argument(required = false)
+        private TimeUnit unit;
+
+    }
+
+    private Primitives bind(String key, Object value) {
+        final Map<String, Object> arguments = Maps.newHashMap();
+        arguments.put(key, value);
+        return ArgumentBinder.of(Primitives.class).bind(arguments);
+    }
+
+    private void fails(String key, Object value) {
+        try {
+            bind(key, value);
+            Assert.fail(key + "=" + value + " should have been rejected");
+        } catch (ArgumentBindingException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Argument " + key));
+        }
+    }
+
+    /**
+     * Tests that all primitive types are bound.
+     */
+    @Test
+    public void primitives() {
+        Assert.assertEquals(-128, bind("byteValue", -128L).byteValue);
+        Assert.assertEquals(1000, bind("shortValue", "1000").shortValue);
+        Assert.assertEquals(42, bind("intValue", 42.0d).intValue);
+        Assert.assertEquals(Long.MAX_VALUE, bind("longValue", Long.MAX_VALUE).longValue);
+        Assert.assertEquals(1.5d, bind("floatValue", 1.5d).floatValue, 0d);
+        Assert.assertEquals(0.1d, bind("doubleValue", "0.1").doubleValue, 0d);
+        Assert.assertTrue(bind("booleanValue", "true").booleanValue);
+        Assert.assertEquals('x', bind("charValue", "x").charValue);
+    }
+
+    /**
+     * Tests that numbers which don't fit into the field are rejected.
+     */
+    @Test
+    public void outOfRange() {
+        fails("byteValue", 128L);
+        fails("shortValue", -32769);
+        fails("intValue", 1L << 31);
+        fails("longValue", 0x1p63);
+        fails("longValue", 1e19d);
+        fails("longValue", Double.NEGATIVE_INFINITY);
+        fails("floatValue", 1e39d);
+    }
+
+    /**
+     * Tests that integral fields don't lose precision beyond 2^53.
+     */
+    @Test
+    public void exact() {
+        final long large = (1L << 53) + 1;
+        Assert.assertEquals(large, bind("longValue", large).longValue);
+        Assert.assertEquals(large, bind("longValue", BigInteger.valueOf(large)).longValue);
+        Assert.assertEquals(large, bind("longValue", new BigDecimal("9007199254740993")).longValue);
+        Assert.assertEquals(large, bind("longValue", new BigDecimal("9007199254740993.000")).longValue);
+        Assert.assertEquals(Long.MIN_VALUE, bind("longValue", BigInteger.valueOf(Long.MIN_VALUE)).longValue);
+        Assert.assertEquals(1200, bind("intValue", new BigDecimal("1.2E+3")).intValue);
+        Assert.assertEquals(0.5d, bind("doubleValue", new BigDecimal("0.5")).doubleValue, 0d);
+    }
+
+    /**
+     * Tests that big numbers which don't fit into or aren't integers are rejected.
+     */
+    @Test
+    public void inexact() {
+        fails("longValue", BigInteger.ONE.shiftLeft(63));
+        fails("longValue", BigInteger.ONE.shiftLeft(64).add(BigInteger.ONE));
+        fails("longValue", new BigDecimal("9223372036854775808"));
+        fails("longValue", new BigDecimal("9007199254740993.5"));
+        fails("intValue", new BigDecimal("2147483648"));
+        fails("byteValue", BigInteger.valueOf(-129));
+    }
+
+    /**
+     * Tests that values of the wrong type are rejected.
+     */
+    @Test
+    public void wrongTypes() {
+        fails("intValue", 1.5d);
+        fails("longValue", Double.NaN);
+        fails("intValue", "abc");
+        fails("booleanValue", "yes");
+        fails("charValue", "xy");
+        fails("doubleValue", null);
+    }
+
+    /**
+     * Tests required, renamed and defaulted arguments.
+     */
+    @Test
+    public void search() {
+        final Map<String, Object> arguments = Maps.newHashMap();
+        arguments.put("query", "palava");
+        arguments.put("unit", "SECONDS");
+        arguments.put("unknown", Boolean.TRUE);
+        final Search search = ArgumentBinder.of(Search.class).bind(arguments);
+        Assert.assertEquals("palava", search.query);
+        Assert.assertEquals(Integer.valueOf(10), search.limit);
+        Assert.assertEquals(TimeUnit.SECONDS, search.unit);
+
+        arguments.put("max", 5L);
+        Assert.assertEquals(Integer.valueOf(5), ArgumentBinder.of(Search.class).bind(arguments).limit);
+    }
+
+    /**
+     * Tests that missing required arguments are rejected.
+     */
+    @Test(expected = ArgumentBindingException.class)
+    public void missing() {
+        ArgumentBinder.of(Search.class).bind(Maps.<String, Object>newHashMap());
+    }
+
+    /**
+     * Tests that binders are created once per type.
+     */
+    @Test
+    public void cached() {
+        Assert.assertSame(ArgumentBinder.of(Search.class), ArgumentBinder.of(Search.class));
+    }
+
+}
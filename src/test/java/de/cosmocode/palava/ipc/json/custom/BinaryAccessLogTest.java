@@ -0,0 +1,133 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Tests {@link BinaryAccessLog} and {@link AccessLogExporter}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class BinaryAccessLogTest {
+
+    private static final String CSV_HEADER = "timestamp,duration,outcome,session,identifier,command,url";
+
+    private File directory;
+
+    private BinaryAccessLog log;
+
+    /**
+     * Creates a binary access log in an empty directory.
+     *
+     * @throws IOException if creating the directory failed
+     * @throws LifecycleException should not happen
+     */
+    @Before
+    public void createLog() throws IOException, LifecycleException {
+        directory = File.createTempFile("binary-access-log", "");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdirs());
+        log = new BinaryAccessLog();
+        log.setDirectory(directory);
+        log.initialize();
+    }
+
+    private String[] export() throws IOException, LifecycleException {
+        return export(AccessLogExporter.Format.CSV).split("\n");
+    }
+
+    private String export(AccessLogExporter.Format format) throws IOException, LifecycleException {
+        log.dispose();
+        final StringBuilder output = new StringBuilder();
+        AccessLogExporter.export(format, output, MappedLog.list(directory, BinaryAccessLog.PREFIX));
+        return output.toString();
+    }
+
+    /**
+     * Tests that all fields are written and exported.
+     *
+     * @throws IOException should not happen
+     * @throws LifecycleException should not happen
+     */
+    @Test
+    public void roundTrip() throws IOException, LifecycleException {
+        log.record(1000L, 42L, true, null, "127.0.0.1", String.class, "http://example.com/a,b");
+        final String[] lines = export();
+        Assert.assertEquals(2, lines.length);
+        Assert.assertEquals("1000,42,success,,127.0.0.1,java.lang.String,\"http://example.com/a,b\"", lines[1]);
+    }
+
+    /**
+     * Tests that long urls are truncated without splitting characters.
+     *
+     * @throws IOException should not happen
+     * @throws LifecycleException should not happen
+     */
+    @Test
+    public void truncatedUrl() throws IOException, LifecycleException {
+        final StringBuilder url = new StringBuilder("http://example.com/");
+        while (url.length() < 2 * BinaryAccessLog.URL_SIZE) {
+            url.append('\u00e4');
+        }
+        log.record(1000L, 42L, false, "session", null, String.class, url.toString());
+        final String[] fields = export()[1].split(",");
+        Assert.assertEquals("failure", fields[2]);
+        Assert.assertEquals("", fields[4]);
+        Assert.assertTrue(url.toString().startsWith(fields[6]));
+        Assert.assertTrue(fields[6].length() > BinaryAccessLog.URL_SIZE / 2);
+        Assert.assertEquals(-1, fields[6].indexOf('\ufffd'));
+    }
+
+    /**
+     * Tests that control characters are quoted in csv.
+     *
+     * @throws IOException should not happen
+     * @throws LifecycleException should not happen
+     */
+    @Test
+    public void csvControlCharacters() throws IOException, LifecycleException {
+        log.record(1000L, 42L, true, null, "a,b", String.class, "http://example.com/\r\nx");
+        Assert.assertEquals(CSV_HEADER + "\n1000,42,success,,\"a,b\",java.lang.String,\"http://example.com/\r\nx\"\n",
+            export(AccessLogExporter.Format.CSV));
+    }
+
+    /**
+     * Tests that control characters are escaped in json.
+     *
+     * @throws IOException should not happen
+     * @throws LifecycleException should not happen
+     */
+    @Test
+    public void jsonControlCharacters() throws IOException, LifecycleException {
+        log.record(1000L, 42L, true, null, "a\"\\b", String.class, "http://example.com/\t\n\u0001");
+        Assert.assertEquals("{\"timestamp\":1000,\"duration\":42,\"outcome\":\"success\",\"session\":\"\"," +
+            "\"identifier\":\"a\\\"\\\\b\",\"command\":\"java.lang.String\"," +
+            "\"url\":\"http://example.com/\\u0009\\u000a\\u0001\"}\n",
+            export(AccessLogExporter.Format.JSON));
+    }
+
+}
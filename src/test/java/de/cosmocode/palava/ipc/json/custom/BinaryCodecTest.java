@@ -0,0 +1,119 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Tests {@link BinaryCodec}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class BinaryCodecTest {
+
+    private Object roundTrip(Object value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryCodec.encode(value, new DataOutputStream(bytes));
+        return BinaryCodec.decode(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    /**
+     * Tests that scalars survive encoding and decoding.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void scalars() throws IOException {
+        Assert.assertNull(roundTrip(null));
+        Assert.assertEquals(Boolean.TRUE, roundTrip(Boolean.TRUE));
+        Assert.assertEquals(Boolean.FALSE, roundTrip(Boolean.FALSE));
+        Assert.assertEquals(Long.valueOf(Long.MIN_VALUE), roundTrip(Long.MIN_VALUE));
+        Assert.assertEquals(Double.valueOf(-0.5d), roundTrip(-0.5d));
+        Assert.assertEquals("\u00e4\u00f6\u00fc \u20ac", roundTrip("\u00e4\u00f6\u00fc \u20ac"));
+        Assert.assertEquals("", roundTrip(""));
+    }
+
+    /**
+     * Tests that all integral and floating point types are widened.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void widening() throws IOException {
+        Assert.assertEquals(Long.valueOf(42L), roundTrip(Integer.valueOf(42)));
+        Assert.assertEquals(Long.valueOf(-3L), roundTrip(Short.valueOf((short) -3)));
+        Assert.assertEquals(Long.valueOf(7L), roundTrip(Byte.valueOf((byte) 7)));
+        Assert.assertEquals(Double.valueOf(1.5d), roundTrip(Float.valueOf(1.5f)));
+    }
+
+    /**
+     * Tests that nested maps, lists and arrays are preserved.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void nested() throws IOException {
+        final Map<String, Object> inner = Maps.newHashMap();
+        inner.put("list", Arrays.asList(1L, "two", null, Boolean.TRUE));
+        inner.put("empty", Maps.newHashMap());
+        final Map<String, Object> map = Maps.newHashMap();
+        map.put("inner", inner);
+        map.put("array", new Object[] {"a", 2L});
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> decoded = Map.class.cast(roundTrip(map));
+        Assert.assertEquals(inner, decoded.get("inner"));
+        final List<Object> expected = Arrays.<Object>asList("a", 2L);
+        Assert.assertEquals(expected, decoded.get("array"));
+    }
+
+    /**
+     * Tests that unknown types are encoded using their string representation.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void unknownTypes() throws IOException {
+        Assert.assertEquals("x", roundTrip(new StringBuilder("x")));
+        Assert.assertEquals("SECONDS", roundTrip(java.util.concurrent.TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that corrupt input is rejected.
+     *
+     * @throws IOException expected
+     */
+    @Test(expected = IOException.class)
+    public void unknownTag() throws IOException {
+        BinaryCodec.decode(new DataInputStream(new ByteArrayInputStream(new byte[] {99})));
+    }
+
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests {@link MappedLog}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class MappedLogTest {
+
+    private File directory;
+
+    /**
+     * Creates an empty directory.
+     *
+     * @throws IOException if creating the directory failed
+     */
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("mapped-log", "");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdirs());
+        directory.deleteOnExit();
+    }
+
+    private List<String> readAll() throws IOException {
+        final List<String> records = Lists.newArrayList();
+        for (File segment : MappedLog.list(directory, "test")) {
+            MappedLog.read(segment, new MappedLog.Visitor() {
+
+                @Override
+                public void visit(ByteBuffer record) {
+                    final byte[] bytes = new byte[record.remaining()];
+                    record.get(bytes);
+                    records.add(new String(bytes));
+                }
+
+            });
+        }
+        return records;
+    }
+
+    private void append(MappedLog log, String record) throws IOException {
+        Assert.assertTrue(log.append(record.getBytes(), record.length()));
+    }
+
+    /**
+     * Tests that records are read back in order across segments.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void roundTrip() throws IOException {
+        final MappedLog log = new MappedLog(directory, "test", 32, 10);
+        for (int i = 0; i < 10; i++) {
+            append(log, "record" + i);
+        }
+        log.flush();
+        Assert.assertEquals(10, readAll().size());
+        Assert.assertEquals("record0", readAll().get(0));
+        Assert.assertEquals("record9", readAll().get(9));
+    }
+
+    /**
+     * Tests that records larger than a segment are dropped.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void oversized() throws IOException {
+        final MappedLog log = new MappedLog(directory, "test", 16, 1);
+        Assert.assertFalse(log.append(new byte[9], 9));
+    }
+
+    /**
+     * Tests that segments of previous instances count against the limit.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void retentionAcrossInstances() throws IOException {
+        for (int run = 0; run < 3; run++) {
+            final MappedLog log = new MappedLog(directory, "test", 32, 2);
+            append(log, "run" + run);
+            log.flush();
+        }
+        Assert.assertEquals(2, MappedLog.list(directory, "test").length);
+        Assert.assertEquals(Arrays.asList("run1", "run2"), readAll());
+    }
+
+    /**
+     * Tests that concurrent appends neither lose nor corrupt records across segments.
+     *
+     * @throws InterruptedException should not happen
+     * @throws IOException should not happen
+     */
+    @Test
+    public void concurrent() throws InterruptedException, IOException {
+        final MappedLog log = new MappedLog(directory, "test", 256, 1000);
+        final int threads = 4;
+        final int records = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = Lists.newArrayList();
+        final Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            writers[t] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < records; i++) {
+                            append(log, "thread" + id + "-record" + i);
+                        }
+                    /* CHECKSTYLE:OFF */
+                    } catch (Throwable e) {
+                    /* CHECKSTYLE:ON */
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+
+            });
+            writers[t].start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        log.close();
+
+        Assert.assertTrue(failures.toString(), failures.isEmpty());
+        final List<String> all = readAll();
+        final Set<String> unique = Sets.newHashSet(all);
+        Assert.assertEquals(threads * records, all.size());
+        Assert.assertEquals(threads * records, unique.size());
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < records; i++) {
+                Assert.assertTrue(unique.contains("thread" + t + "-record" + i));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link ResultFingerprint}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class ResultFingerprintTest {
+
+    private final ResultFingerprint fingerprint = new ResultFingerprint();
+
+    private void assertDifferent(Object first, Object second) {
+        Assert.assertFalse(first + " and " + second + " share a fingerprint",
+            fingerprint.of(first) == fingerprint.of(second));
+    }
+
+    private void assertSame(Object first, Object second) {
+        Assert.assertEquals(fingerprint.toString(first), fingerprint.toString(second));
+    }
+
+    private Map<String, Object> map(Object... keysAndValues) {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put(keysAndValues[i].toString(), keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    /**
+     * Tests that flipping the sign of several elements changes the fingerprint.
+     */
+    @Test
+    public void signFlips() {
+        assertDifferent(Arrays.asList(1.0, 2.0), Arrays.asList(-1.0, -2.0));
+        assertDifferent(Arrays.asList(1.5, -2.5, 3.0), Arrays.asList(-1.5, 2.5, 3.0));
+        assertDifferent(Arrays.asList(1L, 2L), Arrays.asList(1L | Long.MIN_VALUE, 2L | Long.MIN_VALUE));
+        assertDifferent(Arrays.asList(0.0, 0.0), Arrays.asList(-0.0, -0.0));
+        assertDifferent(Collections.singletonMap("a", Arrays.asList(1.0, 2.0)),
+            Collections.singletonMap("a", Arrays.asList(-1.0, -2.0)));
+    }
+
+    /**
+     * Tests that sign flips of a key and its value don't cancel out.
+     */
+    @Test
+    public void signFlipsInMapEntries() {
+        final Map<Object, Object> positive = new LinkedHashMap<Object, Object>();
+        positive.put(1.0, 2.0);
+        final Map<Object, Object> negative = new LinkedHashMap<Object, Object>();
+        negative.put(-1.0, -2.0);
+        assertDifferent(positive, negative);
+        assertDifferent(map("a", 1.0, "b", 2.0), map("a", -1.0, "b", -2.0));
+    }
+
+    /**
+     * Tests that the order of list elements matters.
+     */
+    @Test
+    public void reordering() {
+        assertDifferent(Arrays.asList(1, 2, 3), Arrays.asList(3, 2, 1));
+        assertDifferent(Arrays.asList("a", "b"), Arrays.asList("b", "a"));
+        assertDifferent(Arrays.asList(1.0, -1.0), Arrays.asList(-1.0, 1.0));
+    }
+
+    /**
+     * Tests that the iteration order of maps doesn't matter.
+     */
+    @Test
+    public void mapOrder() {
+        assertSame(map("a", 1, "b", Arrays.asList(1, 2)), map("b", Arrays.asList(1, 2), "a", 1));
+        assertDifferent(map("a", 1, "b", 2), map("a", 2, "b", 1));
+    }
+
+    /**
+     * Tests that the nesting structure matters.
+     */
+    @Test
+    public void nesting() {
+        final List<?> flat = Arrays.asList(1, 2);
+        final List<?> nested = Arrays.asList(Arrays.asList(1), Arrays.asList(2));
+        final List<?> single = Arrays.asList(Arrays.asList(1, 2));
+        final List<?> partial = Arrays.asList(Arrays.asList(1), 2);
+        assertDifferent(flat, nested);
+        assertDifferent(flat, single);
+        assertDifferent(nested, single);
+        assertDifferent(nested, partial);
+        assertDifferent(map("a", map("b", 1)), map("a", map("b", map("c", 1))));
+        assertDifferent(map("a", Collections.emptyList()), map("a", Collections.emptyMap()));
+    }
+
+    /**
+     * Tests that values of different types differ.
+     */
+    @Test
+    public void types() {
+        assertDifferent("1", 1);
+        assertDifferent(1, 1.0);
+        assertDifferent(null, "null");
+        assertDifferent(Boolean.TRUE, "true");
+        assertSame(1, 1L);
+        assertSame(Arrays.asList(1, "a"), new Object[] {1, "a"});
+    }
+
+    /**
+     * Tests that equal structures produce equal fingerprints.
+     */
+    @Test
+    public void stable() {
+        assertSame(map("list", Arrays.asList(1.5, "x", null), "flag", true),
+            map("list", Arrays.asList(1.5, "x", null), "flag", true));
+    }
+
+}
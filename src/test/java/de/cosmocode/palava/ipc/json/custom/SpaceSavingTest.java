@@ -0,0 +1,166 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Tests {@link SpaceSaving}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class SpaceSavingTest {
+
+    private Map<String, SpaceSaving.Counter<String>> drain(SpaceSaving<String> summary) {
+        final Map<String, SpaceSaving.Counter<String>> map = Maps.newHashMap();
+        summary.drainTo(map);
+        return map;
+    }
+
+    /**
+     * Tests that counts are exact as long as the capacity is not exceeded.
+     */
+    @Test
+    public void exactBelowCapacity() {
+        final SpaceSaving<String> summary = new SpaceSaving<String>(64);
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j <= i; j++) {
+                summary.offer("key" + i, 2L);
+            }
+        }
+        final Map<String, SpaceSaving.Counter<String>> map = drain(summary);
+        Assert.assertEquals(10, map.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(2L * (i + 1), map.get("key" + i).getCount());
+            Assert.assertEquals(0L, map.get("key" + i).getError());
+        }
+    }
+
+    /**
+     * Tests that the memory stays bounded by the capacity.
+     */
+    @Test
+    public void bounded() {
+        final SpaceSaving<String> summary = new SpaceSaving<String>(16);
+        for (int i = 0; i < 10000; i++) {
+            summary.offer("key" + i, 1L);
+        }
+        Assert.assertTrue(drain(summary).size() <= 16);
+    }
+
+    /**
+     * Tests that heavy keys survive a long tail of distinct keys and that
+     * the reported count never underestimates the real count.
+     */
+    @Test
+    public void heavyHittersSurvive() {
+        final SpaceSaving<String> summary = new SpaceSaving<String>(64);
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            if (i % 10 == 0) {
+                summary.offer("heavy", 1L);
+            } else if (i % 25 == 1) {
+                summary.offer("medium", 1L);
+            } else {
+                summary.offer("tail" + random.nextInt(50000), 1L);
+            }
+        }
+        final List<SpaceSaving.Counter<String>> top = SpaceSaving.top(drain(summary).values(), 2);
+        Assert.assertEquals("heavy", top.get(0).getKey());
+        Assert.assertEquals("medium", top.get(1).getKey());
+        Assert.assertTrue(top.get(0).getCount() >= 10000);
+        Assert.assertTrue(top.get(0).getCount() - top.get(0).getError() <= 10000);
+    }
+
+    /**
+     * Tests that weights are summed up and the order follows the weight, not the frequency.
+     */
+    @Test
+    public void weighted() {
+        final SpaceSaving<String> summary = new SpaceSaving<String>(8);
+        for (int i = 0; i < 100; i++) {
+            summary.offer("cheap", 1L);
+        }
+        summary.offer("expensive", 5000L);
+        summary.offer("negative", -10L);
+        final List<SpaceSaving.Counter<String>> top = SpaceSaving.top(drain(summary).values(), 3);
+        Assert.assertEquals("expensive", top.get(0).getKey());
+        Assert.assertEquals(5000L, top.get(0).getCount());
+        Assert.assertEquals("cheap", top.get(1).getKey());
+        Assert.assertEquals(100L, top.get(1).getCount());
+        Assert.assertEquals(0L, top.get(2).getCount());
+    }
+
+    /**
+     * Tests that draining several summaries sums up counters of the same key.
+     */
+    @Test
+    public void drainMerges() {
+        final SpaceSaving<String> first = new SpaceSaving<String>(8);
+        final SpaceSaving<String> second = new SpaceSaving<String>(8);
+        first.offer("a", 3L);
+        second.offer("a", 4L);
+        second.offer("b", 1L);
+        final Map<String, SpaceSaving.Counter<String>> map = Maps.newHashMap();
+        first.drainTo(map);
+        second.drainTo(map);
+        Assert.assertEquals(7L, map.get("a").getCount());
+        Assert.assertEquals(1L, map.get("b").getCount());
+    }
+
+    /**
+     * Tests that concurrent offers don't lose updates.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void concurrent() throws InterruptedException {
+        final SpaceSaving<String> summary = new SpaceSaving<String>(64);
+        final int threads = 8;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        summary.offer("key" + (i % 32), 1L);
+                    }
+                    done.countDown();
+                }
+
+            }).start();
+        }
+        done.await();
+        final Map<String, SpaceSaving.Counter<String>> map = drain(summary);
+        long total = 0L;
+        for (SpaceSaving.Counter<String> counter : map.values()) {
+            total += counter.getCount();
+        }
+        Assert.assertEquals(threads * 10000L, total);
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Tests {@link StringPool}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class StringPoolTest {
+
+    /**
+     * Tests that equal strings are replaced by one instance.
+     */
+    @Test
+    public void canonical() {
+        final StringPool pool = new StringPool();
+        final String first = new String("Mozilla/5.0");
+        final String second = new String("Mozilla/5.0");
+        Assert.assertSame(first, pool.intern(first));
+        Assert.assertSame(first, pool.intern(second));
+        Assert.assertEquals(1L, pool.getHits());
+        Assert.assertEquals(1L, pool.getMisses());
+    }
+
+    /**
+     * Tests that frequently used strings stay canonical while a long tail of
+     * distinct strings passes through the bounded pool.
+     */
+    @Test
+    public void frequentStringsSurviveEviction() {
+        final StringPool pool = new StringPool();
+        pool.setMaximumSize(64);
+        final String frequent = new String("frequent");
+        pool.intern(frequent);
+        for (int i = 0; i < 10000; i++) {
+            pool.intern("rare" + i);
+            if (i % 8 == 0) {
+                Assert.assertSame(frequent, pool.intern(new String("frequent")));
+            }
+        }
+        Assert.assertTrue(pool.getSize() <= 64);
+    }
+
+    /**
+     * Tests that only the configured meta keys are pooled.
+     */
+    @Test
+    public void internAll() {
+        final StringPool pool = new StringPool();
+        final String agent = new String("agent");
+        pool.intern(agent);
+
+        final Map<Object, Object> meta = Maps.newHashMap();
+        meta.put("HTTP_USER_AGENT", new String("agent"));
+        meta.put(CustomProtocol.IDENTIFIER, new String("agent"));
+        pool.internAll(meta);
+        Assert.assertSame(agent, meta.get("HTTP_USER_AGENT"));
+        Assert.assertNotSame(agent, meta.get(CustomProtocol.IDENTIFIER));
+    }
+
+    /**
+     * Tests that a size of zero disables pooling.
+     */
+    @Test
+    public void disabled() {
+        final StringPool pool = new StringPool();
+        pool.setMaximumSize(0);
+        final String value = new String("value");
+        pool.intern("value");
+        Assert.assertSame(value, pool.intern(value));
+        Assert.assertEquals(0, pool.getSize());
+    }
+
+}
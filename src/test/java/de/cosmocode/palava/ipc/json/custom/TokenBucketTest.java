@@ -0,0 +1,97 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link TokenBucket}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class TokenBucketTest {
+
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Tests that a full bucket allows exactly burst calls at once.
+     */
+    @Test
+    public void burst() {
+        final long now = 1000L;
+        final TokenBucket bucket = new TokenBucket(now);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(bucket.tryAcquire(now, INTERVAL, 5));
+        }
+        Assert.assertFalse(bucket.tryAcquire(now, INTERVAL, 5));
+    }
+
+    /**
+     * Tests that one token is refilled per interval.
+     */
+    @Test
+    public void refill() {
+        final long now = 1000L;
+        final TokenBucket bucket = new TokenBucket(now);
+        Assert.assertTrue(bucket.tryAcquire(now, INTERVAL, 1));
+        Assert.assertFalse(bucket.tryAcquire(now + INTERVAL / 2, INTERVAL, 1));
+        Assert.assertTrue(bucket.tryAcquire(now + INTERVAL, INTERVAL, 1));
+        Assert.assertFalse(bucket.tryAcquire(now + INTERVAL, INTERVAL, 1));
+    }
+
+    /**
+     * Tests that a long pause doesn't accumulate more than burst tokens.
+     */
+    @Test
+    public void noAccumulationBeyondBurst() {
+        final TokenBucket bucket = new TokenBucket(0L);
+        final long later = 1000 * INTERVAL;
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(bucket.tryAcquire(later, INTERVAL, 3));
+        }
+        Assert.assertFalse(bucket.tryAcquire(later, INTERVAL, 3));
+    }
+
+    /**
+     * Tests that rejected calls don't consume tokens.
+     */
+    @Test
+    public void rejectionIsFree() {
+        final TokenBucket bucket = new TokenBucket(0L);
+        Assert.assertTrue(bucket.tryAcquire(0L, INTERVAL, 1));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertFalse(bucket.tryAcquire(1L, INTERVAL, 1));
+        }
+        Assert.assertTrue(bucket.tryAcquire(INTERVAL, INTERVAL, 1));
+    }
+
+    /**
+     * Tests the idle detection.
+     */
+    @Test
+    public void idle() {
+        final TokenBucket bucket = new TokenBucket(0L);
+        Assert.assertTrue(bucket.tryAcquire(0L, INTERVAL, 1));
+        Assert.assertFalse(bucket.isIdle(INTERVAL, INTERVAL));
+        Assert.assertTrue(bucket.isIdle(2 * INTERVAL, INTERVAL));
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.palava.ipc.json.custom;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link VirtualHosts}.
+ *
+ * @since 3.0
+ * @author agent
+ */
+public final class VirtualHostsTest {
+
+    private VirtualHosts newHosts() {
+        return new VirtualHosts(new ProtocolMetrics(new MalformedRequests(), new StringPool(), new PriorityLanes()));
+    }
+
+    /**
+     * Tests that hosts are case insensitive and missing hosts are accounted as unknown.
+     */
+    @Test
+    public void keys() {
+        final VirtualHosts hosts = newHosts();
+        Assert.assertSame(hosts.get("Example.com"), hosts.get("example.com"));
+        Assert.assertEquals(VirtualHosts.UNKNOWN, hosts.get(null).getHost());
+    }
+
+    /**
+     * Tests that hosts beyond the maximum share one entry.
+     */
+    @Test
+    public void maximumHosts() {
+        final VirtualHosts hosts = newHosts();
+        hosts.setMaximumHosts(2);
+        hosts.get("a");
+        hosts.get("b");
+        Assert.assertEquals(VirtualHosts.OTHER, hosts.get("c").getHost());
+        Assert.assertEquals(3, hosts.getAll().size());
+    }
+
+    /**
+     * Tests that only configured hosts are tracked if an allowlist is present.
+     */
+    @Test
+    public void allowlist() {
+        final VirtualHosts hosts = newHosts();
+        hosts.setHosts("www.example.com, API.example.com");
+        Assert.assertEquals("api.example.com", hosts.get("api.example.com").getHost());
+        Assert.assertEquals(VirtualHosts.OTHER, hosts.get("junk").getHost());
+        Assert.assertEquals(VirtualHosts.UNKNOWN, hosts.get(null).getHost());
+    }
+
+    /**
+     * Tests that idle hosts are evicted and free their slot, while active ones are kept.
+     */
+    @Test
+    public void eviction() {
+        final VirtualHosts hosts = newHosts();
+        hosts.setMaximumHosts(2);
+        hosts.get("idle");
+        final VirtualHosts.Usage busy = hosts.get("busy");
+        hosts.acquire(busy);
+
+        final long later = System.nanoTime() + 1000L;
+        Assert.assertEquals(1, hosts.sweep(later, 1L));
+        Assert.assertEquals(2, hosts.getAll().size());
+        Assert.assertSame(busy, hosts.get("busy"));
+        Assert.assertEquals("new", hosts.get("new").getHost());
+
+        hosts.release(busy);
+        Assert.assertEquals(2, hosts.sweep(System.nanoTime() + 1000L, 1L));
+        Assert.assertEquals(1, hosts.getAll().size());
+        Assert.assertEquals(VirtualHosts.OTHER, hosts.getAll().get(0).getHost());
+    }
+
+    /**
+     * Tests that the totals of evicted hosts are kept in the shared entry.
+     */
+    @Test
+    public void evictedTotals() {
+        final VirtualHosts hosts = newHosts();
+        final VirtualHosts.Usage idle = hosts.get("idle");
+        idle.record(2000L, 1000L, true);
+        idle.record(4000L, 0L, false);
+
+        Assert.assertEquals(1, hosts.sweep(System.nanoTime() + 1000L, 1L));
+        Assert.assertEquals(1, hosts.getAll().size());
+        final VirtualHosts.Usage other = hosts.getAll().get(0);
+        Assert.assertEquals(VirtualHosts.OTHER, other.getHost());
+        Assert.assertEquals(2, other.getCalls());
+        Assert.assertEquals(1, other.getErrors());
+        Assert.assertEquals(6000L, other.getWallTime(TimeUnit.NANOSECONDS));
+        Assert.assertEquals(1000L, other.getCpuTime(TimeUnit.NANOSECONDS));
+        Assert.assertEquals(2, other.getLatency().getCount());
+        Assert.assertEquals(4000L, other.getLatency().getMax(TimeUnit.NANOSECONDS));
+    }
+
+}